@@ -0,0 +1,38 @@
+package com.example.ffmpeg.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 检测标注图片输出配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "drone.inspection.output.annotation")
+public class AnnotationOutputConfig {
+
+    /** 输出格式：png（默认，无损）/ jpg / webp，有损格式需显式配置 */
+    private String format = "png";
+
+    /** JPEG/WebP质量 (1-100)，PNG忽略 */
+    private int quality = 85;
+
+    /** 输出长边上限（像素），0表示保持原分辨率 */
+    private int maxSize = 0;
+
+    /** 超过该像素数的输入图像按降采样解码，不在内存中保留全分辨率图像 */
+    private long largeImagePixels = 40_000_000L;
+
+    /** 超大图像降采样后的长边上限，同时是其标注图片的最大分辨率 */
+    private int largeImageMaxSize = 4096;
+
+    /** 标注图片写出线程数 */
+    private int writeThreads = 2;
+
+    /** 等待写出的标注图片上限，写出积压时由检测线程同步写出，限制待写图像占用的内存 */
+    private int writeQueueCapacity = 8;
+
+    /** 输出状态记录保留时间（分钟） */
+    private int statusRetentionMinutes = 60;
+}
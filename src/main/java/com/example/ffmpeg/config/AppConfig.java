@@ -9,6 +9,7 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -38,4 +39,51 @@ public class AppConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 视频编码任务线程池（分段并行编码等），编码器自身也是多线程，线程数取CPU核数的一半
+     */
+    @Bean(name = "videoEncodeExecutor")
+    public Executor videoEncodeExecutor() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(200);
+        // 队列满时由提交线程自己执行，分段较多或并发请求较多时不会中途拒绝而留下未等待的任务
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("VideoEncode-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 标注图片写出线程池：队列有界，积压时由提交线程同步写出，
+     * 批量检测因此不会在写出完成前继续占用新的全分辨率图像
+     */
+    @Bean(name = "annotationWriteExecutor")
+    public Executor annotationWriteExecutor(AnnotationOutputConfig outputConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, outputConfig.getWriteThreads()));
+        executor.setMaxPoolSize(Math.max(1, outputConfig.getWriteThreads()));
+        executor.setQueueCapacity(Math.max(0, outputConfig.getWriteQueueCapacity()));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("AnnotationWrite-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 关键帧索引后台建立线程池：队列满时拒绝，由下次请求未命中时重新提交
+     */
+    @Bean(name = "keyframeIndexExecutor")
+    public Executor keyframeIndexExecutor(KeyframeIndexConfig indexConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, indexConfig.getBuildThreads()));
+        executor.setMaxPoolSize(Math.max(1, indexConfig.getBuildThreads()));
+        executor.setQueueCapacity(Math.max(0, indexConfig.getBuildQueueCapacity()));
+        executor.setThreadNamePrefix("KeyframeIndex-");
+        executor.initialize();
+        return executor;
+    }
 }
@@ -0,0 +1,48 @@
+package com.example.ffmpeg.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 目录监听自动入库检测配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "drone.inspection.ingestion")
+public class IngestionConfig {
+
+    /** 是否启用目录监听 */
+    private boolean enabled = false;
+
+    /** 监听目录（含子目录），为空时使用上传目录 */
+    private String watchDir;
+
+    /** 不监听的子目录（相对监听目录），默认排除接口上传使用的目录，避免重复检测 */
+    private List<String> excludeDirs = new ArrayList<>(Arrays.asList("image", "video"));
+
+    /** 文件大小与修改时间保持不变多久后视为写入完成（毫秒） */
+    private long debounceMs = 3000;
+
+    /** 待处理队列容量，队列满时新文件暂缓入队 */
+    private int queueCapacity = 1000;
+
+    /** 队列日志文件，用于重启后恢复未完成任务 */
+    private String journalFile = "temp/ingestion-queue.log";
+
+    /** 图片检测并发数 */
+    private int imageWorkers = 2;
+
+    /** 视频跟踪并发数 */
+    private int videoWorkers = 1;
+
+    /** 自动检测使用的API Key（配置了多端点Key时可为空） */
+    private String apiKey;
+
+    /** 图片检测置信度阈值 */
+    private double confThreshold = 0.3;
+}
@@ -0,0 +1,35 @@
+package com.example.ffmpeg.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 媒体文件关键帧索引配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "drone.inspection.keyframe-index")
+public class KeyframeIndexConfig {
+
+    /** 是否使用关键帧索引，关闭时各功能由FFmpeg自行查找关键帧 */
+    private boolean enabled = true;
+
+    /** 索引边车文件目录 */
+    private String dir = "temp/keyframe-index";
+
+    /** 内存中缓存的索引数量 */
+    private int cacheSize = 256;
+
+    /** 后台建立索引的线程数，建立时需完整读取文件，以IO为主 */
+    private int buildThreads = 1;
+
+    /** 等待后台建立的文件数上限，超出的文件在下次请求未命中时再提交 */
+    private int buildQueueCapacity = 64;
+
+    /** 边车文件超过该天数未使用时删除，0表示不按时间清理 */
+    private int maxAgeDays = 30;
+
+    /** 边车文件目录总大小上限（MB），超过时从最久未使用的开始删除，0表示不限制 */
+    private long maxSizeMb = 256;
+}
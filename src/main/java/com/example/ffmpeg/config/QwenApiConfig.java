@@ -0,0 +1,137 @@
+package com.example.ffmpeg.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Qwen (DashScope) 多模态接口配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "drone.inspection.api.qwen")
+public class QwenApiConfig {
+
+    private String baseUrl = "https://dashscope.aliyuncs.com/api/v1/services/aigc/multimodal-generation/generation";
+    private String defaultModel = "qwen2.5-vl-72b-instruct";
+    private int timeout = 120;
+    private int maxRetries = 3;
+
+    /** 检测输入JPEG编码质量 (1-100) */
+    private int jpegQuality = 90;
+
+    /** 单次请求最多携带的图像数量 */
+    private int maxBatchSize = 4;
+
+    /**
+     * 多端点配置，为空时使用baseUrl和请求自带的API Key
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * 多端点路由配置
+     */
+    private Routing routing = new Routing();
+
+    /**
+     * 检测上游HTTP连接池配置
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * 对冲请求配置
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 本地替身服务配置（压测用，避免消耗DashScope额度）
+     */
+    private Stub stub = new Stub();
+
+    @Data
+    public static class Hedge {
+        /** 是否启用对冲请求 */
+        private boolean enabled = false;
+        /** 超过最近延迟的该分位数仍未返回时发起对冲 */
+        private double quantile = 0.95;
+        /** 延迟统计窗口大小 */
+        private int windowSize = 200;
+        /** 样本数达到该值后才开始对冲 */
+        private int minSamples = 20;
+        /** 对冲等待时间下限（毫秒） */
+        private long minDelayMs = 1000;
+        /** 对冲请求占总调用数的上限（百分比） */
+        private double budgetPercent = 10.0;
+    }
+
+    @Data
+    public static class Stub {
+        /** 是否启用本地替身接口 */
+        private boolean enabled = false;
+        /** 基础响应延迟（毫秒） */
+        private long latencyMs = 4000;
+        /** 延迟随机抖动范围（毫秒） */
+        private long jitterMs = 1000;
+        /** 错误响应比例 (0-1) */
+        private double errorRate = 0.0;
+        /** 每张图片返回的人物数量 */
+        private int personCount = 3;
+        /** 返回的置信度 */
+        private double confidence = 0.85;
+    }
+
+    @Data
+    public static class Endpoint {
+        /** 端点名称 */
+        private String name;
+        /** 接口地址，为空时使用全局baseUrl */
+        private String baseUrl;
+        /** API Key，为空时使用请求自带的Key */
+        private String apiKey;
+        /** 路由权重 */
+        private double weight = 1.0;
+    }
+
+    @Data
+    public static class Routing {
+        /** 路由策略：least-outstanding 或 ewma */
+        private String strategy = "least-outstanding";
+        /** EWMA延迟平滑系数 (0-1) */
+        private double ewmaAlpha = 0.3;
+        /** 连续失败多少次后摘除端点 */
+        private int ejectAfterFailures = 3;
+        /** 摘除时长（秒） */
+        private long ejectDurationSeconds = 30;
+    }
+
+    @Data
+    public static class Pool {
+        /** 最大连接数 */
+        private int maxConnections = 64;
+        /** 等待获取连接的最大排队数 */
+        private int pendingAcquireMaxCount = 512;
+        /** 等待获取连接的超时时间（毫秒） */
+        private long pendingAcquireTimeoutMs = 30000;
+        /** 空闲连接最长保留时间（秒） */
+        private long maxIdleTimeSeconds = 60;
+        /** 连接最长存活时间（秒） */
+        private long maxLifeTimeSeconds = 600;
+        /** 后台清理空闲/过期连接的间隔（秒） */
+        private long evictIntervalSeconds = 30;
+        /** 启动后预热的连接数，0表示不预热 */
+        private int warmupConnections = 4;
+        /** 建立连接超时（毫秒） */
+        private int connectTimeoutMs = 10000;
+        /** 等待响应超时（秒） */
+        private long responseTimeoutSeconds = 120;
+        /** 是否协商HTTP/2（仅HTTPS） */
+        private boolean http2 = false;
+        /** 是否接受gzip压缩响应 */
+        private boolean compression = true;
+        /** 响应体内存缓冲上限（MB） */
+        private int maxInMemorySizeMb = 16;
+    }
+}
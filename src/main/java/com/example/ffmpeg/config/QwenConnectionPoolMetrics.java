@@ -0,0 +1,68 @@
+package com.example.ffmpeg.config;
+
+import org.springframework.stereotype.Component;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 检测上游连接池指标
+ *
+ * 项目未引入Micrometer，这里通过Reactor Netty的MeterRegistrar回调持有各远端地址的连接池，
+ * 查询时实时读取活跃、空闲、排队等数值
+ */
+@Component
+public class QwenConnectionPoolMetrics implements ConnectionProvider.MeterRegistrar {
+
+    private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics) {
+        pools.put(key(poolName, id, remoteAddress), metrics);
+    }
+
+    /**
+     * 连接池释放时移除（旧版本Reactor Netty不会回调该方法）
+     */
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        pools.remove(key(poolName, id, remoteAddress));
+    }
+
+    /**
+     * 当前各连接池的快照
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        int totalAcquired = 0;
+        int totalPending = 0;
+
+        for (Map.Entry<String, ConnectionPoolMetrics> entry : pools.entrySet()) {
+            ConnectionPoolMetrics metrics = entry.getValue();
+            Map<String, Object> pool = new LinkedHashMap<>();
+            pool.put("acquired", metrics.acquiredSize());
+            pool.put("allocated", metrics.allocatedSize());
+            pool.put("idle", metrics.idleSize());
+            pool.put("pendingAcquire", metrics.pendingAcquireSize());
+            pool.put("maxAllocated", metrics.maxAllocatedSize());
+            pool.put("maxPendingAcquire", metrics.maxPendingAcquireSize());
+            result.put(entry.getKey(), pool);
+
+            totalAcquired += metrics.acquiredSize();
+            totalPending += metrics.pendingAcquireSize();
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("pools", result);
+        snapshot.put("totalAcquired", totalAcquired);
+        snapshot.put("totalPendingAcquire", totalPending);
+        return snapshot;
+    }
+
+    private String key(String poolName, String id, SocketAddress remoteAddress) {
+        return poolName + "@" + remoteAddress + "#" + id;
+    }
+}
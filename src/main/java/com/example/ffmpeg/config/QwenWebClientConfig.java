@@ -0,0 +1,101 @@
+package com.example.ffmpeg.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * 检测上游(DashScope)专用的HTTP客户端
+ *
+ * 独立连接池，连接数、排队上限、空闲/存活时间、超时、HTTP/2和响应压缩均可配置，
+ * 启动后预建立若干连接，避免大批量并行检测时集中建连
+ */
+@Slf4j
+@Configuration
+public class QwenWebClientConfig {
+
+    private static final String POOL_NAME = "qwen-detection";
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider qwenConnectionProvider(QwenApiConfig config, QwenConnectionPoolMetrics poolMetrics) {
+        QwenApiConfig.Pool pool = config.getPool();
+        return ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(pool.getPendingAcquireTimeoutMs()))
+                .maxIdleTime(Duration.ofSeconds(pool.getMaxIdleTimeSeconds()))
+                .maxLifeTime(Duration.ofSeconds(pool.getMaxLifeTimeSeconds()))
+                .evictInBackground(Duration.ofSeconds(pool.getEvictIntervalSeconds()))
+                .lifo()
+                .metrics(true, () -> poolMetrics)
+                .build();
+    }
+
+    @Bean
+    public HttpClient qwenHttpClient(ConnectionProvider qwenConnectionProvider, QwenApiConfig config) {
+        QwenApiConfig.Pool pool = config.getPool();
+        HttpClient httpClient = HttpClient.create(qwenConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, pool.getConnectTimeoutMs())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .keepAlive(true)
+                .responseTimeout(Duration.ofSeconds(pool.getResponseTimeoutSeconds()))
+                .compress(pool.isCompression());
+
+        if (pool.isHttp2() && config.getBaseUrl().startsWith("https")) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return httpClient;
+    }
+
+    @Bean
+    public WebClient qwenWebClient(HttpClient qwenHttpClient, QwenApiConfig config) {
+        int maxInMemorySize = config.getPool().getMaxInMemorySizeMb() * 1024 * 1024;
+        return WebClient.builder()
+                .baseUrl(config.getBaseUrl())
+                .clientConnector(new ReactorClientHttpConnector(qwenHttpClient))
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(maxInMemorySize))
+                .build();
+    }
+
+    /**
+     * 应用就绪后预热：初始化事件循环与DNS解析，并并发发起HEAD请求建立连接放回池中
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmupConnections(ApplicationReadyEvent event) {
+        QwenApiConfig config = event.getApplicationContext().getBean(QwenApiConfig.class);
+        int count = config.getPool().getWarmupConnections();
+        if (count <= 0) {
+            return;
+        }
+
+        HttpClient httpClient = event.getApplicationContext().getBean("qwenHttpClient", HttpClient.class);
+        WebClient webClient = event.getApplicationContext().getBean("qwenWebClient", WebClient.class);
+
+        httpClient.warmup()
+                .thenMany(Flux.range(0, count)
+                        .flatMap(i -> webClient.head()
+                                .exchangeToMono(response -> response.releaseBody().thenReturn(true))
+                                .onErrorResume(ex -> {
+                                    log.debug("检测上游连接预热失败: {}", ex.getMessage());
+                                    return Mono.just(false);
+                                }), count))
+                .filter(Boolean::booleanValue)
+                .count()
+                .subscribe(warmed -> log.info("检测上游连接池预热完成: {}/{} 个连接", warmed, count));
+    }
+}
@@ -68,7 +68,7 @@ public class WebConfig {
                 MediaType mediaType = getMediaType(path);
                 return ServerResponse.ok()
                         .contentType(mediaType)
-                        .header("Cache-Control", "public, max-age=3600") // 缓存1小时
+                        .header("Cache-Control", cacheControl(path))
                         .bodyValue(resource);
             }
             return ServerResponse.notFound().build();
@@ -81,7 +81,7 @@ public class WebConfig {
                         MediaType mediaType = getMediaType(path);
                         return ServerResponse.ok()
                                 .contentType(mediaType)
-                                .header("Cache-Control", "public, max-age=3600") // 缓存1小时
+                                .header("Cache-Control", cacheControl(path))
                                 .bodyValue(resource);
                     }
                     return ServerResponse.notFound().build();
@@ -94,13 +94,22 @@ public class WebConfig {
                         MediaType mediaType = getMediaType(path);
                         return ServerResponse.ok()
                                 .contentType(mediaType)
-                                .header("Cache-Control", "public, max-age=3600") // 缓存1小时
+                                .header("Cache-Control", cacheControl(path))
                                 .bodyValue(resource);
                     }
                     return ServerResponse.notFound().build();
                 });
     }
 
+    // 分片播放列表在转码/跟踪过程中持续更新，不能缓存；其余文件缓存1小时
+    private String cacheControl(String fileName) {
+        String lower = fileName.toLowerCase();
+        if (lower.endsWith(".m3u8") || lower.endsWith(".mpd")) {
+            return "no-cache";
+        }
+        return "public, max-age=3600";
+    }
+
     // 根据文件扩展名确定MIME类型
     private MediaType getMediaType(String fileName) {
         String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
@@ -124,6 +133,14 @@ public class WebConfig {
                 return MediaType.parseMediaType("video/quicktime");
             case "mkv":
                 return MediaType.parseMediaType("video/x-matroska");
+            case "m3u8":
+                return MediaType.parseMediaType("application/vnd.apple.mpegurl");
+            case "ts":
+                return MediaType.parseMediaType("video/mp2t");
+            case "mpd":
+                return MediaType.parseMediaType("application/dash+xml");
+            case "m4s":
+                return MediaType.parseMediaType("video/iso.segment");
             default:
                 return MediaType.APPLICATION_OCTET_STREAM;
         }
@@ -22,15 +22,22 @@ public class ClipController {
     @PostMapping("/cut")
     public ResponseEntity<?> clipVideo(@RequestBody ClipRequest request) {
         try {
-            String outputPath = clipService.clipVideo(
-                request.getInputPath(),
-                request.getOutputPath(),
-                request.getStartTime(),
-                request.getDuration(),
-                request.isPreserveQuality(),
-                request.getVideoCodec(),
-                request.getAudioCodec()
-            );
+            String outputPath = request.isSmartRender() ?
+                clipService.smartClip(
+                    request.getInputPath(),
+                    request.getOutputPath(),
+                    request.getStartTime(),
+                    request.getDuration()
+                ) :
+                clipService.clipVideo(
+                    request.getInputPath(),
+                    request.getOutputPath(),
+                    request.getStartTime(),
+                    request.getDuration(),
+                    request.isPreserveQuality(),
+                    request.getVideoCodec(),
+                    request.getAudioCodec()
+                );
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -50,8 +57,9 @@ public class ClipController {
             String inputPath = (String) request.get("inputPath");
             String outputPattern = (String) request.get("outputPattern");
             double segmentDuration = Double.parseDouble(request.get("segmentDuration").toString());
+            boolean reencode = Boolean.parseBoolean(String.valueOf(request.getOrDefault("reencode", false)));
 
-            List<String> outputPaths = clipService.splitVideo(inputPath, outputPattern, segmentDuration);
+            List<String> outputPaths = clipService.splitVideo(inputPath, outputPattern, segmentDuration, reencode);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
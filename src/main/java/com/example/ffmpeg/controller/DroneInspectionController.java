@@ -1,19 +1,33 @@
 // src/main/java/com/example/ffmpeg/controller/DroneInspectionController.java
 package com.example.ffmpeg.controller;
 
+import com.example.ffmpeg.config.FileStorageConfig;
 import com.example.ffmpeg.dto.DroneImageRequest;
 import com.example.ffmpeg.dto.DroneVideoRequest;
 import com.example.ffmpeg.dto.TrackingResult;
+import com.example.ffmpeg.service.AnnotationOutputTracker;
 import com.example.ffmpeg.service.DroneImageDetectionService;
 import com.example.ffmpeg.service.DroneVideoTrackingService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 @Slf4j
 @RestController
@@ -23,6 +37,15 @@ public class DroneInspectionController {
 
     private final DroneImageDetectionService imageDetectionService;
     private final DroneVideoTrackingService videoTrackingService;
+    private final FileStorageConfig fileStorageConfig;
+    private final AnnotationOutputTracker outputTracker;
+
+    private static final int DEFAULT_BATCH_CONCURRENCY = 4;
+    private static final int MAX_BATCH_CONCURRENCY = 16;
+
+    private static final Set<String> SUPPORTED_IMAGE_FORMATS = Set.of(
+            "jpg", "jpeg", "png", "bmp", "tiff", "webp"
+    );
 
     /**
      * 无人机图像人物检测
@@ -51,6 +74,21 @@ public class DroneInspectionController {
                 });
     }
 
+    /**
+     * 查询标注图片是否已写出
+     *
+     * @param outputPath 检测结果中的outputPath或outputImagePath
+     */
+    @GetMapping("/image/output-status")
+    public Mono<ResponseEntity<Map<String, Object>>> getOutputStatus(@RequestParam String outputPath) {
+        return Mono.fromCallable(() -> {
+            String localPath = outputPath.startsWith("/") ? outputPath.substring(1) : outputPath;
+            Map<String, Object> status = new HashMap<>(outputTracker.getStatus(localPath));
+            status.put("success", true);
+            return ResponseEntity.ok(status);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
     /**
      * 无人机视频人物跟踪
      */
@@ -132,43 +170,125 @@ public class DroneInspectionController {
     }
 
     /**
-     * 批量图像检测
+     * 批量图像检测（按路径）
+     *
+     * 以有限并发处理，每张图片完成后立即输出一行结果（NDJSON或SSE，取决于Accept头）。
+     * 参数无效时返回400，响应体为单条错误结果。
+     * 请求体：{"imagePaths": [...], "confThreshold": 0.3, "maxImageSize": 1024, "concurrency": 4}
      */
-    @PostMapping("/image/batch-detect")
-    public Mono<ResponseEntity<Map<String, Object>>> batchDetectImages(
+    @PostMapping(value = "/image/batch-detect",
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public ResponseEntity<Flux<Map<String, Object>>> batchDetectImages(
             @RequestBody Map<String, Object> request,
             @RequestHeader("Authorization") String authorization) {
 
-        return Mono.fromCallable(() -> {
-                    String apiKey = extractApiKey(authorization);
-                    if (apiKey == null || apiKey.isEmpty()) {
-                        throw new IllegalArgumentException("缺少有效的API Key");
-                    }
+        String apiKey = extractApiKey(authorization);
+        if (apiKey == null || apiKey.isEmpty()) {
+            return batchBadRequest("缺少有效的API Key");
+        }
 
-                    @SuppressWarnings("unchecked")
-                    java.util.List<String> imagePaths = (java.util.List<String>) request.get("imagePaths");
-                    if (imagePaths == null || imagePaths.isEmpty()) {
-                        throw new IllegalArgumentException("图像路径列表不能为空");
-                    }
+        Object pathsValue = request.get("imagePaths");
+        if (!(pathsValue instanceof List<?> imagePaths) || imagePaths.isEmpty()) {
+            return batchBadRequest("图像路径列表不能为空");
+        }
 
-                    Map<String, Object> result = new HashMap<>();
-                    result.put("success", true);
-                    result.put("totalImages", imagePaths.size());
-                    result.put("batchId", java.util.UUID.randomUUID().toString());
-                    result.put("message", "批量检测任务已创建");
+        double confThreshold = request.get("confThreshold") instanceof Number number ? number.doubleValue() : 0.3;
+        int maxImageSize = request.get("maxImageSize") instanceof Number number ? number.intValue() : 1024;
+        int concurrency = resolveConcurrency(request.get("concurrency") instanceof Number number ?
+                number.intValue() : DEFAULT_BATCH_CONCURRENCY);
 
-                    // 这里可以实现实际的批量处理逻辑
-                    log.info("创建批量图像检测任务，图像数量: {}", imagePaths.size());
+        log.info("开始批量图像检测，图像数量: {}, 并发: {}", imagePaths.size(), concurrency);
 
-                    return ResponseEntity.ok(result);
-                })
+        Flux<DroneImageRequest> requests = Flux.fromIterable(imagePaths)
+                .map(path -> createImageRequest(String.valueOf(path), confThreshold, maxImageSize));
+
+        return ResponseEntity.ok(imageDetectionService.detectBatch(requests, apiKey, concurrency)
+                .doOnComplete(() -> log.info("批量图像检测完成，图像数量: {}", imagePaths.size())));
+    }
+
+    /**
+     * 批量图像检测（上传文件）
+     *
+     * 文件按顺序落盘后进入检测，检测在途数量达到并发上限时暂停读取后续文件。
+     * 参数通过查询字符串传递：confThreshold、maxImageSize、concurrency；缺少API Key时返回400
+     */
+    @PostMapping(value = "/image/batch-detect/upload",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public ResponseEntity<Flux<Map<String, Object>>> batchDetectUploadedImages(
+            @RequestPart("files") Flux<FilePart> files,
+            @RequestHeader("Authorization") String authorization,
+            @RequestParam(defaultValue = "0.3") double confThreshold,
+            @RequestParam(defaultValue = "1024") int maxImageSize,
+            @RequestParam(defaultValue = "" + DEFAULT_BATCH_CONCURRENCY) int concurrency) {
+
+        String apiKey = extractApiKey(authorization);
+        if (apiKey == null || apiKey.isEmpty()) {
+            return batchBadRequest("缺少有效的API Key");
+        }
+
+        // concatMap逐个消费multipart分段，背压经flatMap传递到请求体读取
+        Flux<DroneImageRequest> requests = files
+                .concatMap(this::saveUploadedImage)
+                .map(path -> createImageRequest(path.toString(), confThreshold, maxImageSize));
+
+        return ResponseEntity.ok(imageDetectionService.detectBatch(requests, apiKey, resolveConcurrency(concurrency))
                 .onErrorResume(ex -> {
-                    log.error("批量图像检测失败: {}", ex.getMessage(), ex);
-                    Map<String, Object> errorResponse = new HashMap<>();
-                    errorResponse.put("success", false);
-                    errorResponse.put("error", ex.getMessage());
-                    return Mono.just(ResponseEntity.badRequest().body(errorResponse));
-                });
+                    log.error("批量上传检测失败: {}", ex.getMessage(), ex);
+                    return Flux.just(createBatchError(ex.getMessage()));
+                }));
+    }
+
+    /**
+     * 保存上传的图像到上传目录，不支持的格式跳过
+     */
+    private Mono<Path> saveUploadedImage(FilePart filePart) {
+        String filename = filePart.filename();
+        String extension = filename.contains(".") ?
+                filename.substring(filename.lastIndexOf('.') + 1).toLowerCase() : "";
+        if (!SUPPORTED_IMAGE_FORMATS.contains(extension)) {
+            log.warn("跳过不支持的文件格式: {}", filename);
+            return filePart.content()
+                    .doOnNext(DataBufferUtils::release)
+                    .then(Mono.empty());
+        }
+
+        return Mono.fromCallable(() -> {
+                    Path imageDir = fileStorageConfig.getUploadPath().resolve("image");
+                    Files.createDirectories(imageDir);
+                    String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+                    return imageDir.resolve(String.format("%s_%s.%s", timestamp,
+                            UUID.randomUUID().toString().substring(0, 8), extension));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(savePath -> DataBufferUtils.write(filePart.content(), savePath).thenReturn(savePath));
+    }
+
+    private DroneImageRequest createImageRequest(String imagePath, double confThreshold, int maxImageSize) {
+        DroneImageRequest imageRequest = new DroneImageRequest();
+        imageRequest.setImagePath(imagePath);
+        imageRequest.setConfThreshold(confThreshold);
+        imageRequest.setMaxImageSize(maxImageSize);
+        return imageRequest;
+    }
+
+    private int resolveConcurrency(int concurrency) {
+        return Math.max(1, Math.min(concurrency, MAX_BATCH_CONCURRENCY));
+    }
+
+    /**
+     * 批量检测参数错误：在开始输出结果流之前返回400
+     */
+    private ResponseEntity<Flux<Map<String, Object>>> batchBadRequest(String message) {
+        log.warn("批量图像检测参数错误: {}", message);
+        return ResponseEntity.badRequest().body(Flux.just(createBatchError(message)));
+    }
+
+    private Map<String, Object> createBatchError(String message) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("error", message);
+        return errorResponse;
     }
 
     /**
@@ -1,6 +1,7 @@
 // src/main/java/com/example/ffmpeg/controller/FileUploadController.java
 package com.example.ffmpeg.controller;
 
+import com.example.ffmpeg.service.KeyframeIndexService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,6 +10,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
@@ -29,6 +31,8 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class FileUploadController {
 
+    private final KeyframeIndexService keyframeIndexService;
+
     @Value("${drone.inspection.storage.upload-dir:uploads}")
     private String uploadDir;
 
@@ -91,10 +95,42 @@ public class FileUploadController {
      * 批量上传图像文件
      */
     @PostMapping(value = "/images/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<ResponseEntity<Map<String, Object>>> uploadImageBatch(@RequestPart("files") Mono<FilePart> filePartsMono) {
-        // 这里可以实现批量上传逻辑
-        // 目前先返回单文件上传的结果
-        return uploadImage(filePartsMono);
+    public Mono<ResponseEntity<Map<String, Object>>> uploadImageBatch(@RequestPart("files") Flux<FilePart> fileParts) {
+        // multipart分段必须按顺序消费，逐个落盘
+        return fileParts
+                .concatMap(filePart -> {
+                    log.info("开始上传图像文件: {}", filePart.filename());
+                    return uploadFile(filePart, "image", SUPPORTED_IMAGE_FORMATS, MAX_IMAGE_SIZE)
+                            .onErrorResume(ex -> {
+                                log.error("图像文件上传失败: {} - {}", filePart.filename(), ex.getMessage());
+                                Map<String, Object> errorResponse = createErrorResponse(ex.getMessage());
+                                errorResponse.put("originalFilename", filePart.filename());
+                                // 校验失败时分段内容未被读取，丢弃以继续处理后续文件
+                                return filePart.content()
+                                        .doOnNext(DataBufferUtils::release)
+                                        .onErrorResume(drainError -> Flux.empty())
+                                        .then(Mono.just(errorResponse));
+                            });
+                })
+                .collectList()
+                .map(results -> {
+                    long successCount = results.stream()
+                            .filter(result -> Boolean.TRUE.equals(result.get("success")))
+                            .count();
+
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("success", successCount > 0);
+                    response.put("totalFiles", results.size());
+                    response.put("successCount", successCount);
+                    response.put("failureCount", results.size() - successCount);
+                    response.put("files", results);
+                    return ResponseEntity.ok(response);
+                })
+                .onErrorResume(ex -> {
+                    log.error("批量上传失败: {}", ex.getMessage());
+                    Map<String, Object> errorResponse = createErrorResponse(ex.getMessage());
+                    return Mono.just(ResponseEntity.badRequest().body(errorResponse));
+                });
     }
 
     /**
@@ -167,6 +203,12 @@ public class FileUploadController {
                 })
                 .subscribeOn(Schedulers.boundedElastic())
                 .flatMap(this::saveFile)
+                .doOnNext(context -> {
+                    if ("video".equals(context.fileType)) {
+                        // 后台建立关键帧索引，后续剪辑、转码请求直接使用
+                        keyframeIndexService.buildAsync(context.savePath.toString());
+                    }
+                })
                 .map(this::createSuccessResponse);
     }
 
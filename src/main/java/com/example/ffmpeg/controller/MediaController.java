@@ -3,6 +3,7 @@ package com.example.ffmpeg.controller;
 import com.example.ffmpeg.dto.MediaInfo;
 import com.example.ffmpeg.dto.TranscodeRequest;
 import com.example.ffmpeg.service.MediaService;
+import com.example.ffmpeg.service.TranscodeProgressTracker;
 import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
 import lombok.RequiredArgsConstructor;
@@ -10,6 +11,8 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+
 @Validated
 @RestController
 @RequestMapping("/api/media")
@@ -17,6 +20,7 @@ import reactor.core.publisher.Mono;
 public class MediaController {
 
     private final MediaService mediaService;
+    private final TranscodeProgressTracker progressTracker;
 
     @GetMapping("/info")
     public Mono<MediaInfo> getMediaInfo(@RequestParam @NotBlank String filePath) {
@@ -27,4 +31,12 @@ public class MediaController {
     public Mono<String> transcodeMedia(@RequestBody @Valid TranscodeRequest request) {
         return mediaService.transcodeMedia(request);
     }
+
+    /**
+     * 查询多版本转码中某个版本的进度
+     */
+    @GetMapping("/transcode/progress")
+    public Mono<Map<String, Object>> getTranscodeProgress(@RequestParam @NotBlank String outputPath) {
+        return Mono.fromCallable(() -> progressTracker.getProgress(outputPath));
+    }
 }
@@ -1,6 +1,8 @@
 // src/main/java/com/example/ffmpeg/controller/SystemStatusController.java
 package com.example.ffmpeg.controller;
 
+import com.example.ffmpeg.config.QwenConnectionPoolMetrics;
+import com.example.ffmpeg.service.DirectoryIngestionService;
 import com.example.ffmpeg.service.QwenApiService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,6 +26,8 @@ import java.util.Map;
 public class SystemStatusController {
 
     private final QwenApiService qwenApiService;
+    private final QwenConnectionPoolMetrics qwenPoolMetrics;
+    private final DirectoryIngestionService ingestionService;
 
     @Value("${server.port:8080}")
     private int serverPort;
@@ -96,6 +100,14 @@ public class SystemStatusController {
 
                 status.put("services", services);
 
+                // 检测上游连接池
+                status.put("detectionPool", qwenPoolMetrics.snapshot());
+                status.put("detectionHedging", qwenApiService.getHedgingStats());
+                status.put("detectionEndpoints", qwenApiService.getEndpointStats());
+
+                // 目录监听自动检测队列
+                status.put("ingestion", ingestionService.getStats());
+
                 return ResponseEntity.ok(status);
 
             } catch (Exception e) {
@@ -8,6 +8,7 @@ public class ClipRequest {
     private boolean preserveQuality; // 是否保持原视频质量
     private String videoCodec;       // 视频编码（可选）
     private String audioCodec;       // 音频编码（可选）
+    private boolean smartRender;     // 智能剪辑：只重新编码起止处的不完整GOP，其余复制数据包
 
     // Getters and Setters
     public String getInputPath() {
@@ -58,6 +59,14 @@ public class ClipRequest {
         this.videoCodec = videoCodec;
     }
 
+    public boolean isSmartRender() {
+        return smartRender;
+    }
+
+    public void setSmartRender(boolean smartRender) {
+        this.smartRender = smartRender;
+    }
+
     public String getAudioCodec() {
         return audioCodec;
     }
@@ -28,4 +28,13 @@ public class DroneImageRequest {
     private Integer apiTimeout = 120;
 
     private Boolean saveOutput = true;
+
+    /** 标注图片输出格式（jpg/webp/png），为空时使用全局配置 */
+    private String outputFormat;
+
+    /** 标注图片质量 (1-100)，为空时使用全局配置 */
+    private Integer outputQuality;
+
+    /** 标注图片长边上限，0表示原分辨率，为空时使用全局配置 */
+    private Integer outputMaxSize;
 }
@@ -33,6 +33,12 @@ public class DroneVideoRequest {
     /** 最大图像尺寸 */
     private Integer maxImageSize = 1024;
 
+    /** 是否根据近期检测框大小自适应选择检测输入尺寸（目标很小时切瓦片） */
+    private Boolean adaptiveResolution = false;
+
+    /** 单次检测请求的预估字节预算，0表示不限制 */
+    private Long detectionByteBudget = 0L;
+
     /** 是否启用自动去重 */
     private Boolean enableAutoDedup = true;
 
@@ -42,6 +48,18 @@ public class DroneVideoRequest {
     /** 最大API调用次数 */
     private Integer maxDetectionCalls = 4;
 
+    /** 检测帧批量大小（大于1时预先抽取检测帧，合并为多图请求；不超过drone.inspection.api.qwen.max-batch-size） */
+    private Integer detectionBatchSize = 1;
+
+    /** 是否启用运动门控（背景建模，仅对运动区域检测，画面静止时跳过检测） */
+    private Boolean motionGating = false;
+
+    /** 背景建模算法：MOG2 或 KNN */
+    private String motionAlgorithm = "MOG2";
+
+    /** 运动区域外扩像素 */
+    private Integer motionPadding = 32;
+
     /** 最小检测间隔帧数 */
     private Integer minDetectionInterval = 90;
 
@@ -63,6 +81,12 @@ public class DroneVideoRequest {
     /** 是否保存输出视频 */
     private Boolean saveVideo = true;
 
+    /** 输出视频格式：mp4 / hls / dash，分片格式在处理过程中即可开始播放 */
+    private String outputFormat = "mp4";
+
+    /** hls/dash分片时长（秒） */
+    private Integer segmentSeconds = 4;
+
     /** 是否显示实时预览 */
     private Boolean showPreview = false;
 }
@@ -114,6 +114,9 @@ public class TrackingResult {
         /** 去重次数 */
         private int dedupCount;
 
+        /** 因画面静止跳过的检测帧数 */
+        private int motionSkippedDetections;
+
         /** 丢失跟踪次数 */
         private int lostTrackingCount;
 
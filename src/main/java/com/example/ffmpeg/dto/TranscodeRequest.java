@@ -3,6 +3,8 @@ package com.example.ffmpeg.dto;
 import javax.validation.constraints.NotBlank;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class TranscodeRequest {
     @NotBlank(message = "输入文件路径不能为空")
@@ -15,4 +17,32 @@ public class TranscodeRequest {
     private String audioCodec = "aac";
     private String resolution;  // 例如：1920x1080
     private String bitrate;    // 例如：2M
+
+    /**
+     * 输出格式：mp4 / hls / dash，分片格式边转码边写出分片和播放列表
+     */
+    private String format = "mp4";
+
+    /**
+     * hls/dash分片时长（秒）
+     */
+    private Integer segmentSeconds = 4;
+
+    /**
+     * 分段并行转码的分段数，大于1时在关键帧处切分后多核并行编码再拼接（仅mp4输出）
+     */
+    private Integer parallelChunks = 0;
+
+    /**
+     * 多码率版本（ABR阶梯），非空时只解码一次同时输出各版本，忽略resolution/bitrate
+     */
+    private List<Rendition> renditions;
+
+    @Data
+    public static class Rendition {
+        private String name;        // 例如：720p
+        private String resolution;  // 例如：1280x720，或只给高度：720
+        private String bitrate;     // 例如：2M
+        private String outputPath;  // 为空时按outputPath加版本名生成
+    }
 }
@@ -0,0 +1,83 @@
+package com.example.ffmpeg.service;
+
+import com.example.ffmpeg.config.AnnotationOutputConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录异步写出的标注图片状态，供前端查询文件是否可用
+ */
+@Service
+@RequiredArgsConstructor
+public class AnnotationOutputTracker {
+
+    public static final String PENDING = "PENDING";
+    public static final String READY = "READY";
+    public static final String FAILED = "FAILED";
+    public static final String NOT_FOUND = "NOT_FOUND";
+
+    private final AnnotationOutputConfig config;
+    private final Map<String, OutputStatus> statuses = new ConcurrentHashMap<>();
+
+    private static class OutputStatus {
+        final String status;
+        final String error;
+        final LocalDateTime updatedAt;
+
+        OutputStatus(String status, String error) {
+            this.status = status;
+            this.error = error;
+            this.updatedAt = LocalDateTime.now();
+        }
+    }
+
+    public void markPending(String outputPath) {
+        evictExpired();
+        statuses.put(outputPath, new OutputStatus(PENDING, null));
+    }
+
+    public void markReady(String outputPath) {
+        statuses.put(outputPath, new OutputStatus(READY, null));
+    }
+
+    public void markFailed(String outputPath, String error) {
+        statuses.put(outputPath, new OutputStatus(FAILED, error));
+    }
+
+    /**
+     * 查询输出状态，没有记录时按文件是否存在判断
+     */
+    public Map<String, Object> getStatus(String outputPath) {
+        OutputStatus status = statuses.get(outputPath);
+        String state;
+        if (status != null) {
+            state = status.status;
+        } else {
+            state = Files.exists(Paths.get(outputPath)) ? READY : NOT_FOUND;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("outputPath", outputPath);
+        result.put("status", state);
+        result.put("ready", READY.equals(state));
+        if (status != null) {
+            result.put("updatedAt", status.updatedAt.toString());
+            if (status.error != null) {
+                result.put("error", status.error);
+            }
+        }
+        return result;
+    }
+
+    private void evictExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(config.getStatusRetentionMinutes());
+        statuses.entrySet().removeIf(entry -> entry.getValue().updatedAt.isBefore(cutoff));
+    }
+}
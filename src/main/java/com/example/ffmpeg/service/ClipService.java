@@ -12,7 +12,7 @@ public interface ClipService {
      * @param outputPath 输出视频路径
      * @param startTime 开始时间（秒）
      * @param duration 持续时间（秒）
-     * @param preserveQuality 是否保持原视频质量
+     * @param preserveQuality 是否保持原视频质量（true时按数据包复制，起点对齐到关键帧）
      * @param videoCodec 视频编码（可选）
      * @param audioCodec 音频编码（可选）
      * @return 输出视频路径
@@ -21,7 +21,7 @@ public interface ClipService {
                     boolean preserveQuality, String videoCodec, String audioCodec) throws Exception;
 
     /**
-     * 分割视频为多个片段
+     * 分割视频为多个片段（按数据包复制，在分段边界后的第一个关键帧处切分）
      * @param inputPath 输入视频路径
      * @param outputPattern 输出文件名模式（例如：output_%d.mp4）
      * @param segmentDuration 每个片段的持续时间（秒）
@@ -29,6 +29,18 @@ public interface ClipService {
      */
     java.util.List<String> splitVideo(String inputPath, String outputPattern, double segmentDuration) throws Exception;
 
+    /**
+     * 分割视频为多个片段
+     * @param inputPath 输入视频路径
+     * @param outputPattern 输出文件名模式（例如：output_%d.mp4）
+     * @param segmentDuration 每个片段的持续时间（秒）
+     * @param reencode false时单次解复用按数据包复制，在边界后的第一个关键帧处切分；
+     *                 true时各片段重新编码，在有界线程池上并行处理
+     * @return 生成的视频片段路径列表
+     */
+    java.util.List<String> splitVideo(String inputPath, String outputPattern, double segmentDuration,
+                                      boolean reencode) throws Exception;
+
     /**
      * 合并多个视频
      * @param inputPaths 输入视频路径列表
@@ -39,7 +51,7 @@ public interface ClipService {
     String mergeVideos(java.util.List<String> inputPaths, String outputPath, String transition) throws Exception;
 
     /**
-     * 无损剪辑（仅支持某些格式）
+     * 无损剪辑：直接复制压缩数据包，起点对齐到startTime处或之前最近的关键帧
      * @param inputPath 输入视频路径
      * @param outputPath 输出视频路径
      * @param startTime 开始时间（秒）
@@ -48,6 +60,25 @@ public interface ClipService {
      */
     String losslessClip(String inputPath, String outputPath, double startTime, double duration) throws Exception;
 
+    /**
+     * 智能剪辑（帧精确）：只重新编码起止处不完整的GOP，中间部分直接复制数据包
+     * @param inputPath 输入视频路径
+     * @param outputPath 输出视频路径
+     * @param startTime 开始时间（秒）
+     * @param duration 持续时间（秒）
+     * @return 输出视频路径
+     */
+    String smartClip(String inputPath, String outputPath, double startTime, double duration) throws Exception;
+
+    /**
+     * 获取关键帧列表：只读数据包定位关键帧，需要图片时逐个跳转到关键帧解码并并行编码
+     * @param inputPath 输入视频路径
+     * @param outputDir 关键帧图片输出目录
+     * @param extractImages 是否提取关键帧图片
+     * @param imageFormat 图片格式
+     * @param imageQuality 图片质量（JPEG/WebP）
+     * @return 关键帧信息（时间、帧序号、字节偏移、图片路径）
+     */
     Mono<List<Map<String, Object>>> getKeyframes(String inputPath, String outputDir, boolean extractImages, String imageFormat, int imageQuality);
 
     /**
@@ -0,0 +1,646 @@
+package com.example.ffmpeg.service;
+
+import com.example.ffmpeg.config.FileStorageConfig;
+import com.example.ffmpeg.config.IngestionConfig;
+import com.example.ffmpeg.dto.DroneImageRequest;
+import com.example.ffmpeg.dto.DroneVideoRequest;
+import com.example.ffmpeg.dto.TrackingResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录监听自动检测服务
+ *
+ * 基于NIO WatchService递归监听上传目录，新文件在大小和修改时间稳定debounceMs后
+ * 视为写入完成，按类型进入有界的图片/视频队列，由固定数量的工作线程调用检测服务处理。
+ * 入队和完成写入追加式日志，重启后恢复未完成的任务；队列满时文件暂缓入队，不会丢失。
+ * 已处理的文件按路径+大小+修改时间记录在日志的DONE条目中，溢出重扫和启动扫描时跳过，
+ * 文件内容变化（重新拷贝）后才会再次检测。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DirectoryIngestionService {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "bmp", "tiff", "webp");
+    private static final Set<String> VIDEO_EXTENSIONS = Set.of("mp4", "avi", "mov", "mkv", "flv", "wmv");
+    private static final String TYPE_IMAGE = "IMAGE";
+    private static final String TYPE_VIDEO = "VIDEO";
+
+    /** 检查待定文件是否写入完成的间隔 */
+    private static final long SCAN_INTERVAL_MS = 1000;
+    /** 完成多少个任务后压缩一次队列日志 */
+    private static final int COMPACT_AFTER_DONE = 1000;
+    /** 吞吐量统计窗口 */
+    private static final long THROUGHPUT_WINDOW_MS = 60_000;
+
+    private final IngestionConfig config;
+    private final FileStorageConfig storageConfig;
+    private final DroneImageDetectionService imageDetectionService;
+    private final DroneVideoTrackingService videoTrackingService;
+    private final KeyframeIndexService keyframeIndexService;
+
+    /** 正在写入、等待稳定的文件 */
+    private final Map<Path, Candidate> candidates = new ConcurrentHashMap<>();
+    /** 已入队或处理中的文件，避免重复入队 */
+    private final Set<Path> known = ConcurrentHashMap.newKeySet();
+    /** 已处理完成的文件及其处理时的"大小\t修改时间"指纹 */
+    private final Map<Path, String> processed = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<Long> completionTimes = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong imageTimeMs = new AtomicLong();
+    private final AtomicLong videoTimeMs = new AtomicLong();
+    private final AtomicLong imageDone = new AtomicLong();
+    private final AtomicLong videoDone = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private BlockingQueue<IngestionTask> imageQueue;
+    private BlockingQueue<IngestionTask> videoQueue;
+    private Path root;
+    private Path journalPath;
+    private BufferedWriter journal;
+    private int doneSinceCompact;
+    private long startedAt;
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService scanner;
+    private ExecutorService workers;
+    private volatile boolean running;
+
+    /**
+     * 待入队的文件及其最近一次观察到的大小和修改时间
+     */
+    private static class Candidate {
+        volatile long size = -1;
+        volatile long modified = -1;
+        volatile long changedAt;
+
+        Candidate(long now) {
+            this.changedAt = now;
+        }
+    }
+
+    /**
+     * 队列中的检测任务
+     */
+    private static class IngestionTask {
+        final String type;
+        final Path path;
+        final long size;
+        final long modified;
+        final long enqueuedAt;
+
+        IngestionTask(String type, Path path, long size, long modified, long enqueuedAt) {
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (config.getApiKey() == null || config.getApiKey().isBlank()) {
+            log.warn("目录监听未配置API Key，将依赖检测端点配置的Key");
+        }
+
+        try {
+            root = Paths.get(config.getWatchDir() != null && !config.getWatchDir().isBlank() ?
+                    config.getWatchDir() : storageConfig.getUploadDir()).toAbsolutePath().normalize();
+            Files.createDirectories(root);
+            int capacity = Math.max(1, config.getQueueCapacity());
+            imageQueue = new LinkedBlockingQueue<>(capacity);
+            videoQueue = new LinkedBlockingQueue<>(capacity);
+            startedAt = System.currentTimeMillis();
+            running = true;
+
+            journalPath = Paths.get(config.getJournalFile()).toAbsolutePath();
+            Files.createDirectories(journalPath.getParent());
+            recoverJournal();
+
+            watchService = FileSystems.getDefault().newWatchService();
+            registerTree(root);
+            // 补录停机期间拷入的文件，已处理且未变化的文件由offerCandidate过滤
+            rescan(root, 0);
+
+            watchThread = new Thread(this::watchLoop, "ingestion-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+
+            scanner = Executors.newSingleThreadScheduledExecutor(daemonFactory("ingestion-scan"));
+            scanner.scheduleWithFixedDelay(this::scanCandidates, SCAN_INTERVAL_MS, SCAN_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+
+            int imageWorkers = Math.max(1, config.getImageWorkers());
+            int videoWorkers = Math.max(1, config.getVideoWorkers());
+            workers = Executors.newFixedThreadPool(imageWorkers + videoWorkers, daemonFactory("ingestion-worker"));
+            for (int i = 0; i < imageWorkers; i++) {
+                workers.submit(() -> workLoop(imageQueue));
+            }
+            for (int i = 0; i < videoWorkers; i++) {
+                workers.submit(() -> workLoop(videoQueue));
+            }
+
+            log.info("📂 目录监听已启动: {} (图片线程{}，视频线程{}，队列容量{})",
+                    root, imageWorkers, videoWorkers, capacity);
+        } catch (IOException e) {
+            running = false;
+            log.error("目录监听启动失败: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.debug("关闭WatchService失败: {}", e.getMessage());
+        }
+        scanner.shutdownNow();
+        workers.shutdownNow();
+        synchronized (this) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.debug("关闭队列日志失败: {}", e.getMessage());
+            }
+        }
+        log.info("目录监听已停止，未完成任务将在下次启动时恢复");
+    }
+
+    /**
+     * 吞吐与积压统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("running", running);
+        if (!running) {
+            return stats;
+        }
+        long now = System.currentTimeMillis();
+        pruneCompletions(now);
+
+        stats.put("watchDir", root.toString());
+        stats.put("watchedDirectories", watchedDirs.size());
+        stats.put("pendingWrites", candidates.size());
+        stats.put("imageBacklog", imageQueue.size());
+        stats.put("videoBacklog", videoQueue.size());
+        stats.put("inFlight", inFlight.get());
+        stats.put("oldestQueuedAgeMs", Math.max(oldestAge(imageQueue, now), oldestAge(videoQueue, now)));
+        stats.put("enqueued", enqueuedCount.get());
+        stats.put("processed", processedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("deferredQueueFull", deferredCount.get());
+        stats.put("throughputPerMinute", completionTimes.size());
+        stats.put("avgImageMs", imageDone.get() > 0 ? imageTimeMs.get() / imageDone.get() : 0);
+        stats.put("avgVideoMs", videoDone.get() > 0 ? videoTimeMs.get() / videoDone.get() : 0);
+        return stats;
+    }
+
+    // ==================== 监听 ====================
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // 事件丢失：重新扫描本次启动后修改过的文件，已处理的文件不会重复入队
+                    log.warn("目录监听事件溢出，重新扫描: {}", root);
+                    rescan(root, startedAt);
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (Files.isDirectory(path)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !isExcluded(path)) {
+                        // 新目录（如整体拷贝的SD卡目录）在注册前可能已写入文件
+                        registerTree(path);
+                        rescan(path, 0);
+                    }
+                } else {
+                    offerCandidate(path);
+                }
+            }
+
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+        }
+    }
+
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (isExcluded(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirs.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("注册监听目录失败: {} - {}", start, e.getMessage());
+        }
+    }
+
+    /**
+     * 扫描目录下修改时间不早于since的文件，加入待定列表
+     */
+    private void rescan(Path start, long since) {
+        try (var stream = Files.walk(start)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(path -> !isExcluded(path.getParent()))
+                    .filter(path -> path.toFile().lastModified() >= since)
+                    .forEach(this::offerCandidate);
+        } catch (IOException e) {
+            log.warn("扫描目录失败: {} - {}", start, e.getMessage());
+        }
+    }
+
+    private void offerCandidate(Path path) {
+        if (typeOf(path) == null || known.contains(path)) {
+            return;
+        }
+        if (processed.containsKey(path)) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (isProcessed(path, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                    return;
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+        long now = System.currentTimeMillis();
+        candidates.compute(path, (p, candidate) -> {
+            if (candidate == null) {
+                return new Candidate(now);
+            }
+            candidate.changedAt = now;
+            return candidate;
+        });
+    }
+
+    private boolean isExcluded(Path dir) {
+        if (dir == null || !dir.startsWith(root) || dir.equals(root)) {
+            return false;
+        }
+        String first = root.relativize(dir).getName(0).toString();
+        return config.getExcludeDirs() != null && config.getExcludeDirs().contains(first);
+    }
+
+    // ==================== 去抖与入队 ====================
+
+    /**
+     * 文件大小和修改时间在debounceMs内不再变化时视为写入完成并入队
+     */
+    private void scanCandidates() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Path path = entry.getKey();
+            Candidate candidate = entry.getValue();
+            try {
+                if (!Files.isRegularFile(path)) {
+                    iterator.remove();
+                    continue;
+                }
+                long size = Files.size(path);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                if (size != candidate.size || modified != candidate.modified) {
+                    candidate.size = size;
+                    candidate.modified = modified;
+                    candidate.changedAt = now;
+                    continue;
+                }
+                if (size == 0 || now - candidate.changedAt < config.getDebounceMs()) {
+                    continue;
+                }
+
+                if (known.contains(path) || isProcessed(path, size, modified)) {
+                    iterator.remove();
+                } else if (enqueue(typeOf(path), path, size, modified)) {
+                    iterator.remove();
+                } else {
+                    // 队列已满，保留在待定列表中，下一轮重试
+                    deferredCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                log.debug("检查待入队文件失败: {} - {}", path, e.getMessage());
+            } catch (Exception e) {
+                log.error("处理待入队文件异常: {}", path, e);
+            }
+        }
+    }
+
+    private boolean enqueue(String type, Path path, long size, long modified) throws IOException {
+        BlockingQueue<IngestionTask> queue = TYPE_VIDEO.equals(type) ? videoQueue : imageQueue;
+        if (!queue.offer(new IngestionTask(type, path, size, modified, System.currentTimeMillis()))) {
+            return false;
+        }
+        known.add(path);
+        appendJournal("ADD\t" + type + "\t" + path);
+        enqueuedCount.incrementAndGet();
+        log.debug("已入队: {} {}", type, path);
+        return true;
+    }
+
+    // ==================== 处理 ====================
+
+    private void workLoop(BlockingQueue<IngestionTask> queue) {
+        while (running) {
+            IngestionTask task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                success = TYPE_VIDEO.equals(task.type) ? processVideo(task.path) : processImage(task.path);
+            } catch (Exception e) {
+                log.error("自动检测失败: {} - {}", task.path, e.getMessage());
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            if (!running) {
+                // 关闭时被中断的任务保留在日志中，下次启动重新处理
+                return;
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+            if (TYPE_VIDEO.equals(task.type)) {
+                videoTimeMs.addAndGet(elapsed);
+                videoDone.incrementAndGet();
+            } else {
+                imageTimeMs.addAndGet(elapsed);
+                imageDone.incrementAndGet();
+            }
+            (success ? processedCount : failedCount).incrementAndGet();
+            completionTimes.addLast(System.currentTimeMillis());
+            pruneCompletions(System.currentTimeMillis());
+
+            // 失败的任务同样记为已处理，避免损坏文件反复重试；可通过重新拷贝文件再次触发。
+            // 先登记指纹再移出known，期间到达的事件不会把文件重新入队
+            String fingerprint = fingerprint(task.size, task.modified);
+            processed.put(task.path, fingerprint);
+            known.remove(task.path);
+            markDone(task.path, fingerprint);
+        }
+    }
+
+    private boolean processImage(Path path) {
+        DroneImageRequest request = new DroneImageRequest();
+        request.setImagePath(path.toString());
+        request.setApiKey(config.getApiKey());
+        request.setConfThreshold(config.getConfThreshold());
+
+        Map<String, Object> result = imageDetectionService.detectAndVisualizePersons(request, config.getApiKey())
+                .block();
+        boolean success = result != null && Boolean.TRUE.equals(result.get("success"));
+        if (success) {
+            log.info("📷 自动检测完成: {} -> {}", path, result.get("outputPath"));
+        } else {
+            log.warn("自动检测失败: {} - {}", path, result != null ? result.get("error") : "无结果");
+        }
+        return success;
+    }
+
+    private boolean processVideo(Path path) throws IOException {
+        // 入库的视频在后台建立关键帧索引，后续剪辑、转码请求直接使用
+        keyframeIndexService.buildAsync(path.toString());
+        Path outputDir = storageConfig.getOutputPath().resolve("ingest");
+        Files.createDirectories(outputDir);
+        String fileName = path.getFileName().toString();
+        String baseName = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+
+        DroneVideoRequest request = new DroneVideoRequest();
+        request.setVideoSource(path.toString());
+        request.setApiKey(config.getApiKey());
+        request.setOutputPath(outputDir.resolve(baseName + "_" + System.currentTimeMillis() + "_tracking.mp4")
+                .toString());
+
+        TrackingResult result = videoTrackingService.processVideoWithTracking(request).block();
+        boolean success = result != null && result.isSuccess();
+        if (success) {
+            log.info("🎬 自动跟踪完成: {} -> {}", path, request.getOutputPath());
+        } else {
+            log.warn("自动跟踪失败: {} - {}", path, result != null ? result.getError() : "无结果");
+        }
+        return success;
+    }
+
+    // ==================== 队列日志 ====================
+
+    /**
+     * 回放队列日志：ADD后未DONE的文件重新入队，DONE条目恢复已处理指纹，随后压缩日志
+     */
+    private void recoverJournal() throws IOException {
+        Map<Path, String> pending = new LinkedHashMap<>();
+        if (Files.exists(journalPath)) {
+            for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                if (line.startsWith("ADD\t")) {
+                    String[] parts = line.split("\t", 3);
+                    if (parts.length == 3) {
+                        pending.put(Paths.get(parts[2]), parts[1]);
+                    }
+                } else if (line.startsWith("DONE\t")) {
+                    // DONE\t大小\t修改时间\t路径；旧格式DONE\t路径没有指纹，只结束任务
+                    String[] parts = line.split("\t", 4);
+                    if (parts.length == 4) {
+                        Path path = Paths.get(parts[3]);
+                        pending.remove(path);
+                        processed.put(path, fingerprint(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                    } else if (parts.length == 2) {
+                        pending.remove(Paths.get(parts[1]));
+                    }
+                }
+            }
+        }
+
+        int restored = 0;
+        for (Map.Entry<Path, String> entry : pending.entrySet()) {
+            Path path = entry.getKey();
+            if (!Files.isRegularFile(path)) {
+                continue;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            BlockingQueue<IngestionTask> queue = TYPE_VIDEO.equals(entry.getValue()) ? videoQueue : imageQueue;
+            IngestionTask task = new IngestionTask(entry.getValue(), path, attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), System.currentTimeMillis());
+            if (queue.offer(task)) {
+                known.add(path);
+                restored++;
+            } else {
+                // 超出容量的部分走待定列表，等队列有空位再入队
+                candidates.put(path, new Candidate(0));
+            }
+        }
+        compactJournal();
+        if (restored > 0 || !candidates.isEmpty()) {
+            log.info("从队列日志恢复 {} 个任务，{} 个等待入队", restored, candidates.size());
+        }
+    }
+
+    private synchronized void markDone(Path path, String fingerprint) {
+        try {
+            appendJournal("DONE\t" + fingerprint + "\t" + path);
+            if (++doneSinceCompact >= COMPACT_AFTER_DONE) {
+                compactJournal();
+            }
+        } catch (IOException e) {
+            log.warn("写入队列日志失败: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void appendJournal(String line) throws IOException {
+        journal.write(line);
+        journal.newLine();
+        journal.flush();
+    }
+
+    /**
+     * 以已处理指纹和当前排队、处理中的任务重写日志（先写临时文件再原子替换）
+     */
+    private synchronized void compactJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        // 已删除文件的指纹不再需要；DONE写在ADD之前，重新处理中的文件回放后仍是待处理
+        processed.keySet().removeIf(path -> !Files.isRegularFile(path));
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Path, String> entry : processed.entrySet()) {
+            lines.add("DONE\t" + entry.getValue() + "\t" + entry.getKey());
+        }
+        // known包含排队和处理中的任务，处理中的任务不在队列里，仍需保留
+        for (Path path : known) {
+            lines.add("ADD\t" + typeOf(path) + "\t" + path);
+        }
+
+        Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        doneSinceCompact = 0;
+    }
+
+    // ==================== 工具方法 ====================
+
+    private String typeOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (IMAGE_EXTENSIONS.contains(extension)) {
+            return TYPE_IMAGE;
+        }
+        if (VIDEO_EXTENSIONS.contains(extension)) {
+            return TYPE_VIDEO;
+        }
+        return null;
+    }
+
+    private static String fingerprint(long size, long modified) {
+        return size + "\t" + modified;
+    }
+
+    private boolean isProcessed(Path path, long size, long modified) {
+        return fingerprint(size, modified).equals(processed.get(path));
+    }
+
+    private long oldestAge(BlockingQueue<IngestionTask> queue, long now) {
+        IngestionTask head = queue.peek();
+        return head != null ? now - head.enqueuedAt : 0;
+    }
+
+    private void pruneCompletions(long now) {
+        Long oldest;
+        while ((oldest = completionTimes.peekFirst()) != null && now - oldest > THROUGHPUT_WINDOW_MS) {
+            completionTimes.pollFirst();
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
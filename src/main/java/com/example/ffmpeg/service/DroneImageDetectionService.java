@@ -1,6 +1,7 @@
 package com.example.ffmpeg.service;
 
 import com.example.ffmpeg.dto.DroneImageRequest;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
@@ -19,4 +20,16 @@ public interface DroneImageDetectionService {
      */
     Mono<Map<String, Object>> detectAndVisualizePersons(DroneImageRequest request, String apiKey);
 
+    /**
+     * 批量检测图像，以有限并发处理，每张图片完成后立即输出结果
+     *
+     * 上游按并发数按需拉取，下游消费慢时不会继续读取新的图片
+     *
+     * @param requests    检测请求流
+     * @param apiKey      API密钥
+     * @param concurrency 最大并发数
+     * @return 按完成顺序输出的检测结果，包含index和imagePath
+     */
+    Flux<Map<String, Object>> detectBatch(Flux<DroneImageRequest> requests, String apiKey, int concurrency);
+
 }
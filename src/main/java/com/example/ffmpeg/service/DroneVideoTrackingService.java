@@ -1,6 +1,9 @@
 package com.example.ffmpeg.service;
 
 import com.example.ffmpeg.dto.*;
+import com.example.ffmpeg.util.AdaptiveResolutionPolicy;
+import com.example.ffmpeg.util.MotionRegionDetector;
+import com.example.ffmpeg.util.SegmentedOutput;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
@@ -41,6 +44,11 @@ public class DroneVideoTrackingService {
     private final Java2DFrameConverter frameConverter = new Java2DFrameConverter();
     private final OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
 
+    /** 跨区域去重：IoU超过该值视为同一目标 */
+    private static final double REGION_NMS_IOU = 0.5;
+    /** 跨区域去重：较小框超过该比例落在另一框内视为同一目标 */
+    private static final double REGION_NMS_CONTAINMENT = 0.7;
+
     /**
      * 跟踪器信息类
      */
@@ -90,6 +98,10 @@ public class DroneVideoTrackingService {
             if (outputPath == null) {
                 outputPath = String.format("video/output/drone_tracking_%s.mp4", timestamp);
             }
+            String outputFormat = SegmentedOutput.normalizeFormat(request.getOutputFormat());
+            if (SegmentedOutput.isSegmented(outputFormat)) {
+                outputPath = SegmentedOutput.playlistPath(outputPath, outputFormat);
+            }
 
             log.info("🚁 开始处理无人机视频: {}", request.getVideoSource());
             log.info("📁 输出路径: {}", outputPath);
@@ -128,7 +140,9 @@ public class DroneVideoTrackingService {
         AtomicInteger trackerIdCounter = new AtomicInteger(1);
         AtomicInteger frameCounter = new AtomicInteger(0);
         AtomicInteger apiCallCounter = new AtomicInteger(0);
+        AtomicInteger detectionCounter = new AtomicInteger(0);
         AtomicInteger dedupCounter = new AtomicInteger(0);
+        AtomicInteger motionSkipCounter = new AtomicInteger(0);
 
         // 配置参数
         double confThreshold = request.getConfThreshold() != null ? request.getConfThreshold() : 0.5;
@@ -142,6 +156,25 @@ public class DroneVideoTrackingService {
                 request.getMinDetectionInterval() : 90;
         int maxDetectionCalls = request.getMaxDetectionCalls() != null ?
                 request.getMaxDetectionCalls() : 4;
+        int detectionBatchSize = request.getDetectionBatchSize() != null ?
+                request.getDetectionBatchSize() : 1;
+        // 单次请求的图像数受max-batch-size限制，超出部分会被拆成多次请求，按上限成批使API调用计数准确
+        if (detectionBatchSize > qwenApiService.getMaxBatchSize()) {
+            log.info("检测帧批量大小 {} 超过单次请求上限 {}，按上限成批",
+                    detectionBatchSize, qwenApiService.getMaxBatchSize());
+            detectionBatchSize = qwenApiService.getMaxBatchSize();
+        }
+        boolean motionGating = request.getMotionGating() != null && request.getMotionGating();
+
+        int maxImageSize = request.getMaxImageSize() != null ? request.getMaxImageSize() : 1024;
+        AdaptiveResolutionPolicy resolutionPolicy = Boolean.TRUE.equals(request.getAdaptiveResolution()) ?
+                new AdaptiveResolutionPolicy(maxImageSize,
+                        request.getDetectionByteBudget() != null ? request.getDetectionByteBudget() : 0,
+                        qwenApiService.getMaxBatchSize()) : null;
+
+        MotionRegionDetector motionDetector = motionGating ?
+                new MotionRegionDetector(request.getMotionAlgorithm(),
+                        request.getMotionPadding() != null ? request.getMotionPadding() : 32) : null;
 
         try {
             // 初始化视频源
@@ -161,12 +194,22 @@ public class DroneVideoTrackingService {
                     totalFrames > 0 ? totalFrames : "未知(实时流)");
 
             // 初始化录制器
-            recorder = initializeRecorder(outputPath, width, height, fps);
+            recorder = initializeRecorder(outputPath, width, height, fps, request);
             recorder.start();
 
             stats.setFps(fps);
             stats.setTotalFrames(totalFrames);
 
+            // 批量模式：检测帧可预先确定，提前抽取并合并为多图请求，减少API往返次数
+            Map<Integer, List<PersonDetection>> prefetchedDetections = Collections.emptyMap();
+            // 运动门控的检测时机取决于画面内容，无法预先规划
+            if (detectionBatchSize > 1 && totalFrames > 0 && !motionGating) {
+                List<Integer> plannedFrames = planDetectionFrames(totalFrames, detectionFrames,
+                        minDetectionInterval, maxDetectionCalls);
+                prefetchedDetections = prefetchBatchDetections(request, videoSource, plannedFrames,
+                        detectionBatchSize, confThreshold, apiCallCounter);
+            }
+
             Frame frame;
             int lastDetectionFrame = -minDetectionInterval;
             int maxPersonCount = 0;
@@ -179,16 +222,64 @@ public class DroneVideoTrackingService {
                 BufferedImage bufferedImage = frameConverter.convert(frame);
                 Mat mat = matConverter.convert(frame);
 
+                // 运动门控：每帧更新背景模型
+                if (motionDetector != null) {
+                    motionDetector.apply(mat);
+                }
+
                 // 判断是否需要执行AI检测
                 boolean shouldDetect = shouldPerformDetection(currentFrame, detectionFrames,
-                        lastDetectionFrame, minDetectionInterval, apiCallCounter.get(), maxDetectionCalls);
+                        lastDetectionFrame, minDetectionInterval, detectionCounter.get(), maxDetectionCalls);
 
                 if (shouldDetect) {
-                    log.info("🔍 在第{}帧执行AI检测", currentFrame);
-                    performAIDetection(request, bufferedImage, trackers, trackerIdCounter,
-                            apiCallCounter, currentFrame, lastDetectionFrame,
-                            confThreshold, trackerType, mat);
-                    lastDetectionFrame = currentFrame;
+                    List<PersonDetection> prefetched = prefetchedDetections.get(currentFrame);
+                    AdaptiveResolutionPolicy.Plan plan = resolutionPolicy != null ?
+                            resolutionPolicy.plan(mat.cols(), mat.rows()) : null;
+                    int detectionSize = plan != null ? plan.maxImageSize : maxImageSize;
+                    List<PersonDetection> detections = null;
+
+                    if (prefetched != null) {
+                        log.info("🔍 第{}帧使用批量预检测结果", currentFrame);
+                        detectionCounter.incrementAndGet();
+                        createTrackersFromDetections(prefetched, trackers, trackerIdCounter,
+                                currentFrame, trackerType, mat);
+                        detections = prefetched;
+                        lastDetectionFrame = currentFrame;
+                    } else if (motionDetector != null && motionDetector.isReady() && !motionDetector.hasMotion()) {
+                        // 画面静止，推迟到出现运动的帧再检测
+                        motionSkipCounter.incrementAndGet();
+                        log.debug("第{}帧无运动，跳过AI检测", currentFrame);
+                    } else if (motionDetector != null && motionDetector.isReady() && !motionDetector.isGlobalMotion()) {
+                        log.info("🔍 在第{}帧对{}个运动区域执行AI检测 (覆盖{}%)", currentFrame,
+                                motionDetector.getRegions().size(),
+                                String.format("%.1f", motionDetector.getCoverage() * 100));
+                        detectionCounter.incrementAndGet();
+                        detections = performRegionDetection(request, trackers, trackerIdCounter, apiCallCounter,
+                                currentFrame, confThreshold, trackerType, mat, motionDetector.getRegions(),
+                                detectionSize);
+                        lastDetectionFrame = currentFrame;
+                    } else if (plan != null && plan.isTiled()) {
+                        log.info("🔍 在第{}帧按{}x{}瓦片执行AI检测, 输入尺寸{}", currentFrame,
+                                plan.tilesPerSide, plan.tilesPerSide, detectionSize);
+                        detectionCounter.incrementAndGet();
+                        detections = performRegionDetection(request, trackers, trackerIdCounter, apiCallCounter,
+                                currentFrame, confThreshold, trackerType, mat,
+                                toRects(AdaptiveResolutionPolicy.tileRegions(mat.cols(), mat.rows(),
+                                        plan.tilesPerSide)), detectionSize);
+                        lastDetectionFrame = currentFrame;
+                    } else {
+                        log.info("🔍 在第{}帧执行AI检测, 输入尺寸{}", currentFrame, detectionSize);
+                        detectionCounter.incrementAndGet();
+                        detections = performAIDetection(request, trackers, trackerIdCounter,
+                                apiCallCounter, currentFrame, lastDetectionFrame,
+                                confThreshold, trackerType, mat, detectionSize);
+                        lastDetectionFrame = currentFrame;
+                    }
+
+                    if (resolutionPolicy != null && detections != null) {
+                        resolutionPolicy.observeDetections(detections.stream()
+                                .map(PersonDetection::getBbox).toList());
+                    }
                 }
 
                 // 更新现有跟踪器
@@ -231,9 +322,13 @@ public class DroneVideoTrackingService {
             stats.setApiCalls(apiCallCounter.get());
             stats.setDedupCount(dedupCounter.get());
             stats.setMaxPersonCount(maxPersonCount);
+            stats.setMotionSkippedDetections(motionSkipCounter.get());
 
             log.info("✅ 视频处理完成: 处理{}帧, API调用{}次, 去重{}次, 最大人数{}",
                     frameCounter.get(), apiCallCounter.get(), dedupCounter.get(), maxPersonCount);
+            if (motionDetector != null) {
+                log.info("🎞️ 运动门控: 因画面静止跳过检测{}帧", motionSkipCounter.get());
+            }
 
             // 保存到数据库
             saveVideoDetectionToDatabase(request, outputPath, stats);
@@ -241,6 +336,9 @@ public class DroneVideoTrackingService {
             return buildTrackingResult(outputPath, stats);
 
         } finally {
+            if (motionDetector != null) {
+                motionDetector.close();
+            }
             closeResources(grabber, recorder);
         }
     }
@@ -289,61 +387,281 @@ public class DroneVideoTrackingService {
     /**
      * 初始化录制器
      */
-    private FFmpegFrameRecorder initializeRecorder(String outputPath, int width, int height, int fps) {
+    private FFmpegFrameRecorder initializeRecorder(String outputPath, int width, int height, int fps,
+                                                   DroneVideoRequest request) {
         FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath, width, height);
         recorder.setVideoCodec(org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_H264);
         recorder.setFrameRate(fps);
         recorder.setVideoBitrate(2000000); // 2Mbps
+
+        // HLS/DASH：边处理边写出分片，前端可在任务结束前开始播放
+        String outputFormat = SegmentedOutput.normalizeFormat(request.getOutputFormat());
+        if (SegmentedOutput.isSegmented(outputFormat)) {
+            int segmentSeconds = request.getSegmentSeconds() != null
+                    ? request.getSegmentSeconds() : SegmentedOutput.DEFAULT_SEGMENT_SECONDS;
+            SegmentedOutput.configure(recorder, outputFormat, outputPath, fps, segmentSeconds);
+        }
         return recorder;
     }
 
     /**
      * 执行AI检测
      */
-    private void performAIDetection(DroneVideoRequest request, BufferedImage bufferedImage,
-                                    List<TrackerInfo> trackers, AtomicInteger trackerIdCounter,
-                                    AtomicInteger apiCallCounter, int currentFrame,
-                                    int lastDetectionFrame, double confThreshold,
-                                    String trackerType, Mat mat) {
+    private List<PersonDetection> performAIDetection(DroneVideoRequest request,
+                                                     List<TrackerInfo> trackers, AtomicInteger trackerIdCounter,
+                                                     AtomicInteger apiCallCounter, int currentFrame,
+                                                     int lastDetectionFrame, double confThreshold,
+                                                     String trackerType, Mat mat, int maxImageSize) {
+        String model = request.getModelName() != null ? request.getModelName() : "qwen2.5-vl-72b-instruct";
         try {
-            // 调用Qwen API进行检测
+            // 调用Qwen API进行检测（直接从Mat缩放编码）
             List<PersonDetection> detections = qwenApiService.detectPersonsInFrame(
-                    bufferedImage, request.getApiKey(), confThreshold, 30
+                    mat, request.getApiKey(), model, maxImageSize, confThreshold, 30, currentFrame
             ).block();
 
             apiCallCounter.incrementAndGet();
 
-            if (detections != null && !detections.isEmpty()) {
-                log.info("🎯 检测到{}个目标", detections.size());
-
-                // 为每个检测结果创建跟踪器
-                for (PersonDetection detection : detections) {
-                    double[] bbox = detection.getBbox();
-                    if (bbox != null && bbox.length >= 4) {
-                        Rect2d rect2d = new Rect2d(
-                                bbox[0], bbox[1],
-                                bbox[2] - bbox[0], bbox[3] - bbox[1]
-                        );
-
-                        // 检查是否与现有跟踪器重叠
-                        if (!isOverlapWithExistingTrackers(rect2d, trackers, 0.3)) {
-                            int trackerId = trackerIdCounter.getAndIncrement();
-                            Color color = generateTrackingColor(trackerId);
-                            TrackerInfo trackerInfo = new TrackerInfo(trackerId, rect2d, color,
-                                    trackerType, currentFrame);
-
-                            if (initializeTracker(trackerInfo, mat, rect2d, trackerType)) {
-                                trackers.add(trackerInfo);
-                                log.info("✨ 创建新跟踪器 #{} ({}), 位置: ({:.0f},{:.0f},{:.0f},{:.0f})",
-                                        trackerId, trackerType, rect2d.x(), rect2d.y(),
-                                        rect2d.width(), rect2d.height());
-                            }
+            createTrackersFromDetections(detections, trackers, trackerIdCounter, currentFrame, trackerType, mat);
+            return detections;
+        } catch (Exception e) {
+            log.warn("⚠️ AI检测失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 对指定区域（运动区域或瓦片）执行AI检测：裁剪区域合并为多图请求，检测框平移回整帧坐标
+     */
+    private List<PersonDetection> performRegionDetection(DroneVideoRequest request,
+                                                         List<TrackerInfo> trackers, AtomicInteger trackerIdCounter,
+                                                         AtomicInteger apiCallCounter, int currentFrame,
+                                                         double confThreshold, String trackerType,
+                                                         Mat mat, List<Rect> regions, int maxImageSize) {
+        String model = request.getModelName() != null ? request.getModelName() : "qwen2.5-vl-72b-instruct";
+
+        List<Mat> crops = new ArrayList<>(regions.size());
+        try {
+            for (Rect region : regions) {
+                crops.add(new Mat(mat, region));
+            }
+
+            List<List<PersonDetection>> results = qwenApiService.detectPersonsInFrames(
+                    crops, request.getApiKey(), model, maxImageSize, confThreshold, 30
+            ).block();
+
+            int batchSize = qwenApiService.getMaxBatchSize();
+            apiCallCounter.addAndGet((crops.size() + batchSize - 1) / batchSize);
+
+            List<PersonDetection> detections = new ArrayList<>();
+            if (results != null) {
+                for (int i = 0; i < results.size() && i < regions.size(); i++) {
+                    Rect region = regions.get(i);
+                    for (PersonDetection detection : results.get(i)) {
+                        double[] bbox = detection.getBbox();
+                        if (bbox != null && bbox.length >= 4) {
+                            detection.setBbox(new double[]{
+                                    bbox[0] + region.x(), bbox[1] + region.y(),
+                                    bbox[2] + region.x(), bbox[3] + region.y()
+                            });
                         }
+                        detections.add(detection);
                     }
                 }
             }
+
+            // 相邻区域（瓦片）重叠部分的目标会被检测多次，合并后再创建跟踪器和记录尺寸
+            detections = suppressDuplicates(detections);
+            createTrackersFromDetections(detections, trackers, trackerIdCounter, currentFrame, trackerType, mat);
+            return detections;
         } catch (Exception e) {
-            log.warn("⚠️ AI检测失败: {}", e.getMessage());
+            log.warn("⚠️ 区域AI检测失败: {}", e.getMessage());
+            return null;
+        } finally {
+            crops.forEach(Mat::release);
+        }
+    }
+
+    /**
+     * 跨区域非极大值抑制：按置信度从高到低保留，与已保留框IoU超过阈值，
+     * 或大部分面积落在已保留框内（瓦片边缘截断的半个目标）的框视为重复
+     */
+    private List<PersonDetection> suppressDuplicates(List<PersonDetection> detections) {
+        if (detections.size() < 2) {
+            return detections;
+        }
+        List<PersonDetection> sorted = new ArrayList<>(detections);
+        sorted.sort((a, b) -> Double.compare(b.getConfidence(), a.getConfidence()));
+
+        List<PersonDetection> kept = new ArrayList<>();
+        for (PersonDetection candidate : sorted) {
+            double[] box = candidate.getBbox();
+            boolean duplicate = false;
+            if (box != null && box.length >= 4) {
+                for (PersonDetection existing : kept) {
+                    double[] other = existing.getBbox();
+                    if (other == null || other.length < 4) {
+                        continue;
+                    }
+                    double width = Math.min(box[2], other[2]) - Math.max(box[0], other[0]);
+                    double height = Math.min(box[3], other[3]) - Math.max(box[1], other[1]);
+                    if (width <= 0 || height <= 0) {
+                        continue;
+                    }
+                    double intersection = width * height;
+                    double area = (box[2] - box[0]) * (box[3] - box[1]);
+                    double otherArea = (other[2] - other[0]) * (other[3] - other[1]);
+                    double iou = intersection / (area + otherArea - intersection);
+                    if (iou > REGION_NMS_IOU || intersection / Math.min(area, otherArea) > REGION_NMS_CONTAINMENT) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+            }
+            if (!duplicate) {
+                kept.add(candidate);
+            }
+        }
+        if (kept.size() < detections.size()) {
+            log.debug("合并区域重复检测: {} -> {}", detections.size(), kept.size());
+        }
+        return kept;
+    }
+
+    private List<Rect> toRects(int[][] regions) {
+        List<Rect> rects = new ArrayList<>(regions.length);
+        for (int[] region : regions) {
+            rects.add(new Rect(region[0], region[1], region[2], region[3]));
+        }
+        return rects;
+    }
+
+    /**
+     * 根据检测结果创建跟踪器
+     */
+    private void createTrackersFromDetections(List<PersonDetection> detections, List<TrackerInfo> trackers,
+                                              AtomicInteger trackerIdCounter, int currentFrame,
+                                              String trackerType, Mat mat) {
+        if (detections == null || detections.isEmpty()) {
+            return;
+        }
+
+        log.info("🎯 检测到{}个目标", detections.size());
+
+        // 为每个检测结果创建跟踪器
+        for (PersonDetection detection : detections) {
+            double[] bbox = detection.getBbox();
+            if (bbox != null && bbox.length >= 4) {
+                Rect2d rect2d = new Rect2d(
+                        bbox[0], bbox[1],
+                        bbox[2] - bbox[0], bbox[3] - bbox[1]
+                );
+
+                // 检查是否与现有跟踪器重叠
+                if (!isOverlapWithExistingTrackers(rect2d, trackers, 0.3)) {
+                    int trackerId = trackerIdCounter.getAndIncrement();
+                    Color color = generateTrackingColor(trackerId);
+                    TrackerInfo trackerInfo = new TrackerInfo(trackerId, rect2d, color,
+                            trackerType, currentFrame);
+
+                    if (initializeTracker(trackerInfo, mat, rect2d, trackerType)) {
+                        trackers.add(trackerInfo);
+                        log.info("✨ 创建新跟踪器 #{} ({}), 位置: ({:.0f},{:.0f},{:.0f},{:.0f})",
+                                trackerId, trackerType, rect2d.x(), rect2d.y(),
+                                rect2d.width(), rect2d.height());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 预先计算检测帧序列（与主循环中的shouldPerformDetection判定一致）
+     */
+    private List<Integer> planDetectionFrames(int totalFrames, List<Integer> detectionFrames,
+                                              int minInterval, int maxCalls) {
+        List<Integer> planned = new ArrayList<>();
+        int lastDetectionFrame = -minInterval;
+        for (int frame = 1; frame <= totalFrames && planned.size() < maxCalls; frame++) {
+            if (shouldPerformDetection(frame, detectionFrames, lastDetectionFrame, minInterval,
+                    planned.size(), maxCalls)) {
+                planned.add(frame);
+                lastDetectionFrame = frame;
+            }
+        }
+        return planned;
+    }
+
+    /**
+     * 抽取计划中的检测帧，按批次合并为多图请求进行检测
+     *
+     * @param batchSize 每批帧数，不超过单次请求上限，每批对应一次API调用
+     */
+    private Map<Integer, List<PersonDetection>> prefetchBatchDetections(DroneVideoRequest request, String videoSource,
+                                                                        List<Integer> plannedFrames, int batchSize,
+                                                                        double confThreshold,
+                                                                        AtomicInteger apiCallCounter) {
+        Map<Integer, List<PersonDetection>> results = new HashMap<>();
+        if (plannedFrames.isEmpty()) {
+            return results;
+        }
+
+        String model = request.getModelName() != null ? request.getModelName() : "qwen2.5-vl-72b-instruct";
+        int maxImageSize = request.getMaxImageSize() != null ? request.getMaxImageSize() : 1024;
+        int lastPlannedFrame = plannedFrames.get(plannedFrames.size() - 1);
+
+        List<Integer> batchFrames = new ArrayList<>();
+        List<Mat> batchMats = new ArrayList<>();
+        OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+
+        try (FFmpegFrameGrabber prefetchGrabber = new FFmpegFrameGrabber(videoSource)) {
+            prefetchGrabber.start();
+
+            Frame frame;
+            int frameNumber = 0;
+            while (frameNumber < lastPlannedFrame && (frame = prefetchGrabber.grabImage()) != null) {
+                frameNumber++;
+                if (!plannedFrames.contains(frameNumber)) {
+                    continue;
+                }
+
+                batchFrames.add(frameNumber);
+                batchMats.add(converter.convert(frame).clone());
+
+                if (batchMats.size() >= batchSize || frameNumber == lastPlannedFrame) {
+                    detectFrameBatch(request, model, maxImageSize, confThreshold, batchFrames, batchMats, results);
+                    apiCallCounter.incrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 批量预检测失败，回退到逐帧检测: {}", e.getMessage());
+        } finally {
+            batchMats.forEach(Mat::release);
+        }
+
+        log.info("📦 批量预检测完成: {}个检测帧, {}次API调用", results.size(), apiCallCounter.get());
+        return results;
+    }
+
+    /**
+     * 执行一批检测帧的多图检测并清空批次
+     */
+    private void detectFrameBatch(DroneVideoRequest request, String model, int maxImageSize, double confThreshold,
+                                  List<Integer> batchFrames, List<Mat> batchMats,
+                                  Map<Integer, List<PersonDetection>> results) {
+        try {
+            List<List<PersonDetection>> detections = qwenApiService.detectPersonsInFrames(
+                    batchMats, request.getApiKey(), model, maxImageSize, confThreshold, 30
+            ).block();
+
+            if (detections != null) {
+                for (int i = 0; i < batchFrames.size() && i < detections.size(); i++) {
+                    results.put(batchFrames.get(i), detections.get(i));
+                }
+            }
+        } finally {
+            batchMats.forEach(Mat::release);
+            batchMats.clear();
+            batchFrames.clear();
         }
     }
 
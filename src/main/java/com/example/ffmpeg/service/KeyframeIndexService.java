@@ -0,0 +1,314 @@
+package com.example.ffmpeg.service;
+
+import com.example.ffmpeg.config.KeyframeIndexConfig;
+import com.example.ffmpeg.util.KeyframeIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 媒体文件关键帧索引服务
+ *
+ * 每个文件（路径+大小+修改时间）只扫描一次，索引缓存在内存（LRU）并写入边车文件，
+ * 重启后直接读取边车文件。剪辑、分段转码等功能据此直接定位到目标关键帧。
+ * 建立索引需要完整读取文件，在上传、入库后由后台线程完成，请求路径上只使用已建立的索引。
+ * 边车文件按最近使用时间和目录总大小定期清理。
+ */
+@Slf4j
+@Service
+public class KeyframeIndexService {
+
+    /** 建立索引的分段锁数量，同一文件并发请求只扫描一次 */
+    private static final int LOCK_STRIPES = 64;
+    /** 边车文件目录两次清理的最小间隔 */
+    private static final long EVICT_INTERVAL_MS = 10 * 60 * 1000L;
+
+    private final KeyframeIndexConfig config;
+    private final Executor keyframeIndexExecutor;
+
+    private final Object[] locks = createLocks();
+    private final AtomicLong lastEvictMs = new AtomicLong();
+    /** 已提交后台建立、尚未完成的文件，避免重复提交 */
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+    private Map<String, KeyframeIndex> cache;
+
+    public KeyframeIndexService(KeyframeIndexConfig config,
+                                @Qualifier("keyframeIndexExecutor") Executor keyframeIndexExecutor) {
+        this.config = config;
+        this.keyframeIndexExecutor = keyframeIndexExecutor;
+    }
+
+    /**
+     * 获取已建立的关键帧索引（内存或边车文件），不在调用线程上扫描文件。
+     * 尚未建立时提交后台建立并返回null，未启用或读取失败时同样返回null，调用方退回由FFmpeg查找
+     */
+    public KeyframeIndex find(String inputPath) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        try {
+            Path file = normalize(inputPath);
+            KeyframeIndex index = lookup(file);
+            if (index == null) {
+                submitBuild(file);
+            }
+            return index;
+        } catch (Exception e) {
+            log.warn("关键帧索引不可用: {} - {}", inputPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 获取关键帧索引，尚未建立时在调用线程上建立。
+     * 只用于本身就要完整扫描关键帧的场景（如列出全部关键帧），建立索引不增加额外读取
+     */
+    public KeyframeIndex findOrBuild(String inputPath) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        try {
+            return get(normalize(inputPath));
+        } catch (Exception e) {
+            log.warn("关键帧索引不可用: {} - {}", inputPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 在后台为文件建立索引（上传、入库完成后调用），已建立或正在建立时忽略
+     */
+    public void buildAsync(String inputPath) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        submitBuild(normalize(inputPath));
+    }
+
+    private void submitBuild(Path file) {
+        String key = file.toString();
+        if (!building.add(key)) {
+            return;
+        }
+        try {
+            keyframeIndexExecutor.execute(() -> {
+                try {
+                    get(file);
+                } catch (Exception e) {
+                    log.warn("后台建立关键帧索引失败: {} - {}", key, e.getMessage());
+                } finally {
+                    building.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满，下次请求未命中时再提交
+            building.remove(key);
+            log.debug("关键帧索引建立队列已满，稍后重试: {}", key);
+        }
+    }
+
+    /**
+     * 从内存或边车文件读取与磁盘文件一致的索引，不存在时返回null
+     */
+    private KeyframeIndex lookup(Path file) throws IOException {
+        String key = file.toString();
+        long size = Files.size(file);
+        long modifiedMs = Files.getLastModifiedTime(file).toMillis();
+
+        KeyframeIndex cached = cached(key);
+        if (cached != null && cached.matches(size, modifiedMs)) {
+            return cached;
+        }
+        // 边车文件以原子替换写入，无需加锁读取
+        KeyframeIndex index = readSidecar(sidecarPath(key), key, size, modifiedMs);
+        if (index != null) {
+            put(key, index);
+        }
+        return index;
+    }
+
+    private KeyframeIndex get(Path file) throws Exception {
+        KeyframeIndex index = lookup(file);
+        if (index != null) {
+            return index;
+        }
+
+        String key = file.toString();
+        synchronized (locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)]) {
+            index = lookup(file);
+            if (index != null) {
+                return index;
+            }
+
+            long start = System.currentTimeMillis();
+            index = KeyframeIndex.build(file);
+            log.info("建立关键帧索引: {} ({} 个关键帧，耗时 {}ms)",
+                    key, index.size(), System.currentTimeMillis() - start);
+            writeSidecar(sidecarPath(key), index);
+            evictSidecars();
+            put(key, index);
+            return index;
+        }
+    }
+
+    private KeyframeIndex readSidecar(Path sidecar, String key, long size, long modifiedMs) {
+        try {
+            KeyframeIndex index = KeyframeIndex.readFrom(sidecar);
+            if (key.equals(index.getPath()) && index.matches(size, modifiedMs)) {
+                touch(sidecar);
+                return index;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (Exception e) {
+            log.warn("关键帧索引文件读取失败，重新建立: {} - {}", sidecar, e.getMessage());
+        }
+        return null;
+    }
+
+    private void writeSidecar(Path sidecar, KeyframeIndex index) {
+        try {
+            Files.createDirectories(sidecar.getParent());
+            // 先写临时文件再替换，避免并发读取到不完整的索引
+            Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+            index.writeTo(tmp);
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("关键帧索引文件写入失败: {} - {}", sidecar, e.getMessage());
+        }
+    }
+
+    /**
+     * 以修改时间记录最近使用时间，清理时保留仍在使用的索引
+     */
+    private void touch(Path sidecar) {
+        try {
+            Files.setLastModifiedTime(sidecar, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.debug("更新关键帧索引文件时间失败: {} - {}", sidecar, e.getMessage());
+        }
+    }
+
+    /**
+     * 清理边车文件：删除超过保留天数未使用的，目录仍超过大小上限时从最久未使用的开始删除
+     */
+    private void evictSidecars() {
+        long now = System.currentTimeMillis();
+        long last = lastEvictMs.get();
+        if (now - last < EVICT_INTERVAL_MS || !lastEvictMs.compareAndSet(last, now)) {
+            return;
+        }
+
+        List<Sidecar> sidecars = new ArrayList<>();
+        long totalBytes = 0;
+        try (Stream<Path> paths = Files.list(Paths.get(config.getDir()))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!path.getFileName().toString().endsWith(".kfi")) {
+                    continue;
+                }
+                try {
+                    Sidecar sidecar = new Sidecar(path, Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+                    sidecars.add(sidecar);
+                    totalBytes += sidecar.size;
+                } catch (NoSuchFileException ignored) {
+                    // 并发替换或删除，跳过
+                }
+            }
+        } catch (Exception e) {
+            log.warn("关键帧索引目录清理失败: {} - {}", config.getDir(), e.getMessage());
+            return;
+        }
+
+        long cutoffMs = config.getMaxAgeDays() > 0 ? now - config.getMaxAgeDays() * 24L * 3600 * 1000 : Long.MIN_VALUE;
+        long maxBytes = config.getMaxSizeMb() > 0 ? config.getMaxSizeMb() * 1024 * 1024 : Long.MAX_VALUE;
+        sidecars.sort(Comparator.comparingLong(sidecar -> sidecar.lastUsedMs));
+
+        int deleted = 0;
+        for (Sidecar sidecar : sidecars) {
+            if (sidecar.lastUsedMs >= cutoffMs && totalBytes <= maxBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(sidecar.path);
+                totalBytes -= sidecar.size;
+                deleted++;
+            } catch (Exception e) {
+                log.warn("删除关键帧索引文件失败: {} - {}", sidecar.path, e.getMessage());
+            }
+        }
+        if (deleted > 0) {
+            log.info("清理关键帧索引文件: 删除 {} 个，剩余 {} KB", deleted, totalBytes / 1024);
+        }
+    }
+
+    private static class Sidecar {
+        final Path path;
+        final long lastUsedMs;
+        final long size;
+
+        Sidecar(Path path, long lastUsedMs, long size) {
+            this.path = path;
+            this.lastUsedMs = lastUsedMs;
+            this.size = size;
+        }
+    }
+
+    private static Path normalize(String inputPath) {
+        return Paths.get(inputPath).toAbsolutePath().normalize();
+    }
+
+    private Path sidecarPath(String key) {
+        String name = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".kfi";
+        return Paths.get(config.getDir()).resolve(name);
+    }
+
+    private synchronized KeyframeIndex cached(String key) {
+        return lru().get(key);
+    }
+
+    private synchronized void put(String key, KeyframeIndex index) {
+        lru().put(key, index);
+    }
+
+    private Map<String, KeyframeIndex> lru() {
+        if (cache == null) {
+            int capacity = Math.max(1, config.getCacheSize());
+            cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, KeyframeIndex> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+        return cache;
+    }
+
+    private static Object[] createLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+}
@@ -1,29 +1,40 @@
 // src/main/java/com/example/ffmpeg/service/QwenApiService.java
 package com.example.ffmpeg.service;
 
+import com.example.ffmpeg.config.AnnotationOutputConfig;
+import com.example.ffmpeg.config.QwenApiConfig;
 import com.example.ffmpeg.dto.PersonDetection;
+import com.example.ffmpeg.util.DetectionEndpointRouter;
+import com.example.ffmpeg.util.DetectionImageEncoder;
+import com.example.ffmpeg.util.DetectionImageEncoder.EncodedImage;
+import com.example.ffmpeg.util.DetectionImageEncoder.PreparedImage;
+import com.example.ffmpeg.util.DetectionRequestBodyWriter;
+import com.example.ffmpeg.util.HedgedRequestExecutor;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.binary.Base64;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.ReactiveHttpOutputMessage;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,8 +42,6 @@ import java.util.regex.Pattern;
 @Service
 public class QwenApiService {
 
-    private static final String BASE_URL = "https://dashscope.aliyuncs.com/api/v1/services/aigc/multimodal-generation/generation";
-
     private static final String DETECTION_PROMPT = """
         这是一张无人机航拍视频帧，请检测图像中的所有人物。
         由于是航拍视角，人物可能会显得很小，请仔细观察：
@@ -79,15 +88,55 @@ public class QwenApiService {
         其中bbox格式为[左上角x, 左上角y, 右下角x, 右下角y]，坐标为像素值。
         """;
 
+    private static final String BATCH_DETECTION_PROMPT = """
+        以上按顺序给出了%d张无人机航拍图像（第1张到第%d张），请分别检测每张图像中的所有人物。
+        由于是航拍视角，人物可能会显得很小，请仔细观察：
+        1. 注意人的形状特征：头部、身体轮廓
+        2. 区分人物和其他小物体（如车辆、动物、垃圾桶等）
+        3. 即使人物很小也要标注出来
+        4. 仔细检查画面边缘和阴影区域
+
+        请按以下JSON格式返回结果，images中每张图像对应一项，index为图像序号（从1开始）：
+        {
+            "images": [
+                {
+                    "index": 1,
+                    "persons": [
+                        {
+                            "id": 1,
+                            "bbox": [x1, y1, x2, y2],
+                            "confidence": 0.85
+                        }
+                    ]
+                }
+            ]
+        }
+
+        其中bbox格式为[左上角x, 左上角y, 右下角x, 右下角y]，坐标为该图像自身的像素值。
+        没有人物的图像也要返回对应项，persons为空数组。
+        """;
+
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
-
-    public QwenApiService() {
-        this.webClient = WebClient.builder()
-                .baseUrl(BASE_URL)
-                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                .build();
+    private final int jpegQuality;
+    private final long largeImagePixels;
+    private final int maxBatchSize;
+    private final HedgedRequestExecutor hedgedExecutor;
+    private final DetectionEndpointRouter endpointRouter;
+
+    public QwenApiService(QwenApiConfig config, AnnotationOutputConfig outputConfig,
+                          @Qualifier("qwenWebClient") WebClient webClient) {
+        log.info("Qwen API地址: {}", config.getBaseUrl());
+        this.webClient = webClient;
         this.objectMapper = new ObjectMapper();
+        this.jpegQuality = config.getJpegQuality();
+        this.largeImagePixels = outputConfig.getLargeImagePixels();
+        this.maxBatchSize = Math.max(1, config.getMaxBatchSize());
+
+        QwenApiConfig.Hedge hedge = config.getHedge();
+        this.hedgedExecutor = new HedgedRequestExecutor(hedge.isEnabled(), hedge.getQuantile(),
+                hedge.getWindowSize(), hedge.getMinSamples(), hedge.getMinDelayMs(), hedge.getBudgetPercent());
+        this.endpointRouter = createEndpointRouter(config);
     }
 
     /**
@@ -96,22 +145,8 @@ public class QwenApiService {
     public Mono<List<PersonDetection>> detectPersonsInImage(String imagePath, String apiKey,
                                                             String model, int maxImageSize,
                                                             double confThreshold, int timeout) {
-        return Mono.fromCallable(() -> imageToBase64(imagePath, maxImageSize))
-                .flatMap(base64Data -> {
-                    Map<String, Object> requestBody = buildImageRequestBody(base64Data.base64, model, IMAGE_DETECTION_PROMPT);
-
-                    return webClient.post()
-                            .header("Authorization", "Bearer " + apiKey)
-                            .bodyValue(requestBody)
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(timeout))
-                            .map(response -> parseDetectionResult(response, base64Data.scaleFactor, confThreshold))
-                            .onErrorResume(ex -> {
-                                log.error("Qwen API调用失败: {}", ex.getMessage());
-                                return Mono.just(new ArrayList<>());
-                            });
-                });
+        return detect(() -> encodeImageFile(imagePath, maxImageSize),
+                apiKey, model, IMAGE_DETECTION_PROMPT, confThreshold, timeout);
     }
 
     /**
@@ -121,135 +156,229 @@ public class QwenApiService {
                                                             String model, int maxImageSize,
                                                             double confThreshold, int timeout,
                                                             int frameNumber) {
-        return Mono.fromCallable(() -> frameToBase64(frame, maxImageSize))
-                .flatMap(base64Data -> {
-                    String prompt = DETECTION_PROMPT + "\n帧号: " + frameNumber;
-                    Map<String, Object> requestBody = buildImageRequestBody(base64Data.base64, model, prompt);
-
-                    return webClient.post()
-                            .header("Authorization", "Bearer " + apiKey)
-                            .bodyValue(requestBody)
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(timeout))
-                            .map(response -> parseDetectionResult(response, base64Data.scaleFactor, confThreshold))
-                            .onErrorResume(ex -> {
-                                log.error("Qwen API调用失败: {}", ex.getMessage());
-                                return Mono.just(new ArrayList<>());
-                            });
-                });
+        return detect(() -> encodeFrame(frame, maxImageSize),
+                apiKey, model, DETECTION_PROMPT + "\n帧号: " + frameNumber, confThreshold, timeout);
     }
 
     /**
-     * 内部类：Base64数据和缩放因子
+     * 检测视频帧中的人物（直接使用OpenCV Mat，跳过BufferedImage转换）
      */
-    private static class Base64Data {
-        public final String base64;
-        public final double scaleFactor;
+    public Mono<List<PersonDetection>> detectPersonsInFrame(Mat frame, String apiKey,
+                                                            String model, int maxImageSize,
+                                                            double confThreshold, int timeout,
+                                                            int frameNumber) {
+        return detect(() -> encodeFrame(frame, maxImageSize),
+                apiKey, model, DETECTION_PROMPT + "\n帧号: " + frameNumber, confThreshold, timeout);
+    }
 
-        public Base64Data(String base64, double scaleFactor) {
-            this.base64 = base64;
-            this.scaleFactor = scaleFactor;
-        }
+    /**
+     * 检测已编码好的图像中的人物（配合prepareImageFile，解码结果可复用于标注）
+     */
+    public Mono<List<PersonDetection>> detectPersonsInImage(EncodedImage encoded, String apiKey,
+                                                            String model, double confThreshold, int timeout) {
+        return detect(() -> encoded, apiKey, model, IMAGE_DETECTION_PROMPT, confThreshold, timeout);
     }
 
     /**
-     * 将图像文件转换为Base64
+     * 读取并解码图像文件一次，返回原图和送检JPEG
      */
-    private Base64Data imageToBase64(String imagePath, int maxSize) throws IOException {
-        File imageFile = new File(imagePath);
-        BufferedImage originalImage = ImageIO.read(imageFile);
+    public PreparedImage prepareImageFile(String imagePath, int maxImageSize) throws IOException {
+        return DetectionImageEncoder.prepareFile(imagePath, maxImageSize, jpegQuality);
+    }
 
-        if (originalImage == null) {
-            throw new IOException("无法读取图像文件: " + imagePath);
-        }
+    /**
+     * 同prepareImageFile，像素数超过largeImagePixels的图像只降采样解码到长边canvasMaxSize
+     */
+    public PreparedImage prepareImageFile(String imagePath, int maxImageSize,
+                                          long largeImagePixels, int canvasMaxSize) throws IOException {
+        return DetectionImageEncoder.prepareFile(imagePath, maxImageSize, jpegQuality, largeImagePixels, canvasMaxSize);
+    }
+
+    /**
+     * 批量检测多张图像文件中的人物，每maxBatchSize张打包为一次请求，结果与输入顺序一致
+     */
+    public Mono<List<List<PersonDetection>>> detectPersonsInImages(List<String> imagePaths, String apiKey,
+                                                                   String model, int maxImageSize,
+                                                                   double confThreshold, int timeout) {
+        return Flux.fromIterable(partition(imagePaths))
+                .flatMapSequential(batch -> detectBatch(() -> {
+                    List<EncodedImage> encoded = new ArrayList<>(batch.size());
+                    for (String imagePath : batch) {
+                        encoded.add(encodeImageFile(imagePath, maxImageSize));
+                    }
+                    return encoded;
+                }, apiKey, model, confThreshold, timeout))
+                .collectList()
+                .map(this::flatten);
+    }
 
-        return processImageToBase64(originalImage, maxSize);
+    /**
+     * 批量检测多个视频帧中的人物，每maxBatchSize帧打包为一次请求，结果与输入顺序一致
+     */
+    public Mono<List<List<PersonDetection>>> detectPersonsInFrames(List<Mat> frames, String apiKey,
+                                                                   String model, int maxImageSize,
+                                                                   double confThreshold, int timeout) {
+        return Flux.fromIterable(partition(frames))
+                .flatMapSequential(batch -> detectBatch(() -> {
+                    List<EncodedImage> encoded = new ArrayList<>(batch.size());
+                    for (Mat frame : batch) {
+                        encoded.add(encodeFrame(frame, maxImageSize));
+                    }
+                    return encoded;
+                }, apiKey, model, confThreshold, timeout))
+                .collectList()
+                .map(this::flatten);
     }
 
     /**
-     * 将BufferedImage转换为Base64
+     * 发送一次多图检测请求并按图像拆分结果
      */
-    private Base64Data frameToBase64(BufferedImage frame, int maxSize) throws IOException {
-        if (frame == null) {
-            throw new IOException("帧图像为空");
+    private Mono<List<List<PersonDetection>>> detectBatch(Callable<List<EncodedImage>> imagesSupplier, String apiKey,
+                                                          String model, double confThreshold, int timeout) {
+        return Mono.fromCallable(imagesSupplier)
+                .flatMap(images -> {
+                    List<ByteBuffer> jpegs = images.stream().map(image -> image.jpeg).toList();
+                    String prompt = BATCH_DETECTION_PROMPT.formatted(images.size(), images.size());
+
+                    return postDetection(apiKey, DetectionRequestBodyWriter.batchImageRequest(model, prompt, jpegs))
+                            .timeout(Duration.ofSeconds(timeout))
+                            .map(response -> parseBatchDetectionResult(response, images, confThreshold))
+                            .onErrorResume(ex -> {
+                                log.error("Qwen API批量调用失败: {}", ex.getMessage());
+                                return Mono.just(emptyResults(images.size()));
+                            });
+                });
+    }
+
+    private <T> List<List<T>> partition(List<T> items) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += maxBatchSize) {
+            batches.add(items.subList(i, Math.min(items.size(), i + maxBatchSize)));
         }
+        return batches;
+    }
 
-        return processImageToBase64(frame, maxSize);
+    private List<List<PersonDetection>> flatten(List<List<List<PersonDetection>>> batches) {
+        List<List<PersonDetection>> results = new ArrayList<>();
+        batches.forEach(results::addAll);
+        return results;
     }
 
     /**
-     * 处理图像并转换为Base64
+     * 发送检测请求并解析结果（请求体流式写出，JPEG直接Base64编码进网络缓冲区）
      */
-    private Base64Data processImageToBase64(BufferedImage originalImage, int maxSize) throws IOException {
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
+    private Mono<List<PersonDetection>> detect(Callable<EncodedImage> imageSupplier, String apiKey,
+                                               String model, String prompt,
+                                               double confThreshold, int timeout) {
+        return Mono.fromCallable(imageSupplier)
+                .flatMap(encoded -> postDetection(apiKey,
+                                DetectionRequestBodyWriter.imageRequest(model, prompt, encoded.jpeg))
+                        .timeout(Duration.ofSeconds(timeout))
+                        .map(response -> parseDetectionResult(response, encoded.scaleFactor, confThreshold))
+                        .onErrorResume(ex -> {
+                            log.error("Qwen API调用失败: {}", ex.getMessage());
+                            return Mono.just(new ArrayList<>());
+                        }));
+    }
 
-        // 计算缩放比例
-        double scale = 1.0;
-        int newWidth = originalWidth;
-        int newHeight = originalHeight;
+    /**
+     * 发送检测请求：按路由策略选择端点，必要时对冲（对冲请求重新选择端点）
+     */
+    private Mono<String> postDetection(String apiKey, BodyInserter<ByteBuffer, ReactiveHttpOutputMessage> body) {
+        return hedgedExecutor.execute(() -> endpointRouter.execute(target -> webClient.post()
+                .uri(target.getUri())
+                .header("Authorization", "Bearer " + target.resolveApiKey(apiKey))
+                .body(body)
+                .retrieve()
+                .bodyToMono(String.class)));
+    }
 
-        if (originalWidth > maxSize || originalHeight > maxSize) {
-            scale = Math.min((double) maxSize / originalWidth, (double) maxSize / originalHeight);
-            newWidth = (int) (originalWidth * scale);
-            newHeight = (int) (originalHeight * scale);
+    private DetectionEndpointRouter createEndpointRouter(QwenApiConfig config) {
+        List<DetectionEndpointRouter.Target> targets = new ArrayList<>();
+        for (QwenApiConfig.Endpoint endpoint : config.getEndpoints()) {
+            String name = endpoint.getName() != null ? endpoint.getName() : "endpoint-" + (targets.size() + 1);
+            // 未配置地址的端点（如同一服务的多个Key）使用全局base-url
+            String baseUrl = endpoint.getBaseUrl() != null && !endpoint.getBaseUrl().isBlank() ?
+                    endpoint.getBaseUrl() : config.getBaseUrl();
+            if (baseUrl == null || baseUrl.isBlank()) {
+                throw new IllegalStateException("Qwen检测端点 " + name + " 未配置base-url，且未配置全局qwen.base-url");
+            }
+            try {
+                targets.add(new DetectionEndpointRouter.Target(name, baseUrl,
+                        endpoint.getApiKey(), endpoint.getWeight()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Qwen检测端点 " + name + " 的base-url无效: " + baseUrl, e);
+            }
         }
-
-        // 创建缩放后的图像
-        BufferedImage processedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        if (scale < 1.0) {
-            processedImage.getGraphics().drawImage(originalImage.getScaledInstance(newWidth, newHeight,
-                    java.awt.Image.SCALE_SMOOTH), 0, 0, null);
-            log.info("图像已缩放: {}x{} -> {}x{}", originalWidth, originalHeight, newWidth, newHeight);
+        if (targets.isEmpty()) {
+            targets.add(new DetectionEndpointRouter.Target("default", config.getBaseUrl(), null, 1.0));
         } else {
-            processedImage.getGraphics().drawImage(originalImage, 0, 0, null);
-            log.info("图像尺寸: {}x{}", originalWidth, originalHeight);
+            log.info("Qwen检测端点: {} 个, 路由策略: {}", targets.size(), config.getRouting().getStrategy());
         }
 
-        // 转换为Base64
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(processedImage, "JPEG", baos);
-        String base64 = Base64.encodeBase64String(baos.toByteArray());
-
-        return new Base64Data(base64, scale);
+        QwenApiConfig.Routing routing = config.getRouting();
+        return new DetectionEndpointRouter(targets, routing.getStrategy(), routing.getEwmaAlpha(),
+                routing.getEjectAfterFailures(), routing.getEjectDurationSeconds() * 1000);
     }
 
     /**
-     * 简化的视频帧检测方法（用于DroneVideoTrackingService）
+     * 单次请求最多携带的图像数量
      */
-    public Mono<List<PersonDetection>> detectPersonsInFrame(BufferedImage frame, String apiKey,
-                                                            double confThreshold, int timeout) {
-        return detectPersonsInFrame(frame, apiKey, "qwen2.5-vl-72b-instruct",
-                1024, confThreshold, timeout, 0);
+    public int getMaxBatchSize() {
+        return maxBatchSize;
     }
 
     /**
-     * 构建API请求体 - 用于视觉模型
+     * 对冲请求统计
      */
-    private Map<String, Object> buildImageRequestBody(String base64Image, String model, String prompt) {
-        Map<String, Object> content1 = new HashMap<>();
-        content1.put("image", "data:image/jpeg;base64," + base64Image);
+    public Map<String, Object> getHedgingStats() {
+        return hedgedExecutor.snapshot();
+    }
 
-        Map<String, Object> content2 = new HashMap<>();
-        content2.put("text", prompt);
+    /**
+     * 各检测端点状态
+     */
+    public Map<String, Object> getEndpointStats() {
+        return endpointRouter.snapshot();
+    }
 
-        Map<String, Object> message = new HashMap<>();
-        message.put("role", "user");
-        message.put("content", List.of(content1, content2));
+    /**
+     * 将图像文件缩放编码为JPEG（OpenCV解码、INTER_AREA缩放，超大图像按配置阈值降采样解码）
+     */
+    private EncodedImage encodeImageFile(String imagePath, int maxSize) throws IOException {
+        return DetectionImageEncoder.encodeFile(imagePath, maxSize, jpegQuality, largeImagePixels);
+    }
 
-        Map<String, Object> input = new HashMap<>();
-        input.put("messages", List.of(message));
+    /**
+     * 将BufferedImage缩放编码为JPEG
+     */
+    private EncodedImage encodeFrame(BufferedImage frame, int maxSize) throws IOException {
+        return DetectionImageEncoder.encodeBufferedImage(frame, maxSize, jpegQuality);
+    }
 
-        Map<String, Object> parameters = new HashMap<>();
-        parameters.put("result_format", "message");
+    /**
+     * 将OpenCV Mat直接缩放编码为JPEG
+     */
+    private EncodedImage encodeFrame(Mat frame, int maxSize) throws IOException {
+        return DetectionImageEncoder.encodeMat(frame, maxSize, jpegQuality);
+    }
 
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        requestBody.put("input", input);
-        requestBody.put("parameters", parameters);
+    /**
+     * 简化的视频帧检测方法（用于DroneVideoTrackingService）
+     */
+    public Mono<List<PersonDetection>> detectPersonsInFrame(BufferedImage frame, String apiKey,
+                                                            double confThreshold, int timeout) {
+        return detectPersonsInFrame(frame, apiKey, "qwen2.5-vl-72b-instruct",
+                1024, confThreshold, timeout, 0);
+    }
 
-        return requestBody;
+    /**
+     * 简化的视频帧检测方法（Mat版本，用于DroneVideoTrackingService）
+     */
+    public Mono<List<PersonDetection>> detectPersonsInFrame(Mat frame, String apiKey,
+                                                            double confThreshold, int timeout) {
+        return detectPersonsInFrame(frame, apiKey, "qwen2.5-vl-72b-instruct",
+                1024, confThreshold, timeout, 0);
     }
 
     /**
@@ -302,13 +431,11 @@ public class QwenApiService {
 
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             ImageIO.write(testImage, "JPEG", baos);
-            String testBase64 = Base64.encodeBase64String(baos.toByteArray());
-
-            Map<String, Object> requestBody = buildImageRequestBody(testBase64, model, "这是一个测试图片，请简单回复'测试成功'");
 
             return webClient.post()
                     .header("Authorization", "Bearer " + apiKey)
-                    .bodyValue(requestBody)
+                    .body(DetectionRequestBodyWriter.imageRequest(model, "这是一个测试图片，请简单回复'测试成功'",
+                            ByteBuffer.wrap(baos.toByteArray())))
                     .retrieve()
                     .bodyToMono(String.class)
                     .timeout(Duration.ofSeconds(30))
@@ -406,22 +533,8 @@ public class QwenApiService {
         List<PersonDetection> detections = new ArrayList<>();
 
         try {
-            JsonNode root = objectMapper.readTree(responseText);
-            JsonNode outputNode = root.path("output");
-            JsonNode choicesNode = outputNode.path("choices");
-
-            if (choicesNode.isArray() && choicesNode.size() > 0) {
-                JsonNode messageNode = choicesNode.get(0).path("message");
-                String content = messageNode.path("content").asText();
-
-                // 如果content是数组，取第一个元素的text
-                if (messageNode.path("content").isArray()) {
-                    JsonNode contentArray = messageNode.path("content");
-                    if (contentArray.size() > 0) {
-                        content = contentArray.get(0).path("text").asText();
-                    }
-                }
-
+            String content = extractContentText(objectMapper.readTree(responseText));
+            if (content != null) {
                 detections = parseJsonFromText(content, scaleFactor, confThreshold);
             }
         } catch (JsonProcessingException e) {
@@ -434,6 +547,85 @@ public class QwenApiService {
         return detections;
     }
 
+    /**
+     * 解析批量检测结果，按图像序号拆分并使用各自的缩放因子还原坐标
+     */
+    private List<List<PersonDetection>> parseBatchDetectionResult(String responseText, List<EncodedImage> images,
+                                                                  double confThreshold) {
+        List<List<PersonDetection>> results = emptyResults(images.size());
+
+        try {
+            String content = extractContentText(objectMapper.readTree(responseText));
+            if (content == null) {
+                log.warn("批量检测响应中没有内容");
+                return results;
+            }
+
+            Matcher matcher = Pattern.compile("```json\\s*(.*?)\\s*```", Pattern.DOTALL).matcher(content);
+            String jsonStr;
+            if (matcher.find()) {
+                jsonStr = matcher.group(1).trim();
+            } else {
+                int start = content.indexOf('{');
+                int end = content.lastIndexOf('}');
+                if (start < 0 || end <= start) {
+                    log.warn("无法从批量响应中提取JSON: {}", content);
+                    return results;
+                }
+                jsonStr = content.substring(start, end + 1);
+            }
+
+            JsonNode root = objectMapper.readTree(jsonStr);
+            JsonNode imagesNode = root.path("images");
+            if (imagesNode.isArray()) {
+                for (int i = 0; i < imagesNode.size(); i++) {
+                    JsonNode imageNode = imagesNode.get(i);
+                    int index = imageNode.path("index").asInt(i + 1) - 1;
+                    if (index < 0 || index >= images.size()) {
+                        log.warn("批量检测返回了无效的图像序号: {}", index + 1);
+                        continue;
+                    }
+                    results.set(index, parsePersonsNode(imageNode.path("persons"),
+                            images.get(index).scaleFactor, confThreshold));
+                }
+            } else if (images.size() == 1) {
+                // 单图时模型可能直接返回persons
+                results.set(0, parsePersonsNode(root.path("persons"), images.get(0).scaleFactor, confThreshold));
+            }
+        } catch (Exception e) {
+            log.error("解析批量检测结果失败: {}", e.getMessage());
+        }
+
+        log.info("批量检测结果: {} 张图像, 共 {} 个人物", images.size(),
+                results.stream().mapToInt(List::size).sum());
+        return results;
+    }
+
+    private List<List<PersonDetection>> emptyResults(int size) {
+        List<List<PersonDetection>> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(new ArrayList<>());
+        }
+        return results;
+    }
+
+    /**
+     * 从API响应中提取模型输出文本
+     */
+    private String extractContentText(JsonNode root) {
+        JsonNode choicesNode = root.path("output").path("choices");
+        if (!choicesNode.isArray() || choicesNode.size() == 0) {
+            return null;
+        }
+
+        JsonNode contentNode = choicesNode.get(0).path("message").path("content");
+        // 如果content是数组，取第一个元素的text
+        if (contentNode.isArray()) {
+            return contentNode.size() > 0 ? contentNode.get(0).path("text").asText() : null;
+        }
+        return contentNode.asText();
+    }
+
     /**
      * 从文本中解析JSON
      */
@@ -462,16 +654,7 @@ public class QwenApiService {
 
             // 解析JSON
             JsonNode root = objectMapper.readTree(jsonStr);
-            JsonNode personsNode = root.path("persons");
-
-            if (personsNode.isArray()) {
-                for (JsonNode personNode : personsNode) {
-                    PersonDetection detection = parsePersonNode(personNode, scaleFactor);
-                    if (detection != null && detection.getConfidence() >= confThreshold) {
-                        detections.add(detection);
-                    }
-                }
-            }
+            detections = parsePersonsNode(root.path("persons"), scaleFactor, confThreshold);
 
         } catch (Exception e) {
             log.error("JSON解析失败: {}", e.getMessage());
@@ -482,6 +665,22 @@ public class QwenApiService {
         return detections;
     }
 
+    /**
+     * 解析人物数组节点并按置信度过滤
+     */
+    private List<PersonDetection> parsePersonsNode(JsonNode personsNode, double scaleFactor, double confThreshold) {
+        List<PersonDetection> detections = new ArrayList<>();
+        if (personsNode.isArray()) {
+            for (JsonNode personNode : personsNode) {
+                PersonDetection detection = parsePersonNode(personNode, scaleFactor);
+                if (detection != null && detection.getConfidence() >= confThreshold) {
+                    detections.add(detection);
+                }
+            }
+        }
+        return detections;
+    }
+
     /**
      * 解析单个人物节点
      */
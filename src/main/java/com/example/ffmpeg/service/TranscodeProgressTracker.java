@@ -0,0 +1,100 @@
+package com.example.ffmpeg.service;
+
+import com.example.ffmpeg.util.RenditionTranscoder;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录转码输出的进度，供前端按输出路径查询
+ */
+@Service
+public class TranscodeProgressTracker implements RenditionTranscoder.ProgressListener {
+
+    public static final String PROCESSING = "PROCESSING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+    public static final String NOT_FOUND = "NOT_FOUND";
+
+    /** 结束的记录保留时间（分钟） */
+    private static final int RETENTION_MINUTES = 60;
+
+    private final Map<String, Progress> progresses = new ConcurrentHashMap<>();
+
+    private static class Progress {
+        final String status;
+        final long framesEncoded;
+        final long totalFrames;
+        final String error;
+        final LocalDateTime updatedAt;
+
+        Progress(String status, long framesEncoded, long totalFrames, String error) {
+            this.status = status;
+            this.framesEncoded = framesEncoded;
+            this.totalFrames = totalFrames;
+            this.error = error;
+            this.updatedAt = LocalDateTime.now();
+        }
+    }
+
+    @Override
+    public void onStart(String outputPath, long totalFrames) {
+        evictExpired();
+        progresses.put(outputPath, new Progress(PROCESSING, 0, totalFrames, null));
+    }
+
+    @Override
+    public void onProgress(String outputPath, long framesEncoded, long totalFrames) {
+        progresses.put(outputPath, new Progress(PROCESSING, framesEncoded, totalFrames, null));
+    }
+
+    @Override
+    public void onComplete(String outputPath) {
+        progresses.compute(outputPath, (key, previous) -> new Progress(COMPLETED,
+                previous != null ? previous.framesEncoded : 0, previous != null ? previous.totalFrames : 0, null));
+    }
+
+    @Override
+    public void onFailed(String outputPath, String error) {
+        progresses.compute(outputPath, (key, previous) -> new Progress(FAILED,
+                previous != null ? previous.framesEncoded : 0, previous != null ? previous.totalFrames : 0, error));
+    }
+
+    /**
+     * 查询输出进度，没有记录时按文件是否存在判断
+     */
+    public Map<String, Object> getProgress(String outputPath) {
+        Progress progress = progresses.get(outputPath);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("outputPath", outputPath);
+        if (progress == null) {
+            result.put("status", Files.exists(Paths.get(outputPath)) ? COMPLETED : NOT_FOUND);
+            return result;
+        }
+
+        result.put("status", progress.status);
+        result.put("framesEncoded", progress.framesEncoded);
+        result.put("totalFrames", progress.totalFrames);
+        if (progress.totalFrames > 0) {
+            double percent = COMPLETED.equals(progress.status)
+                    ? 100.0 : Math.min(99.9, progress.framesEncoded * 100.0 / progress.totalFrames);
+            result.put("progress", Math.round(percent * 10) / 10.0);
+        }
+        result.put("updatedAt", progress.updatedAt.toString());
+        if (progress.error != null) {
+            result.put("error", progress.error);
+        }
+        return result;
+    }
+
+    private void evictExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(RETENTION_MINUTES);
+        progresses.entrySet().removeIf(entry -> !PROCESSING.equals(entry.getValue().status)
+                && entry.getValue().updatedAt.isBefore(cutoff));
+    }
+}
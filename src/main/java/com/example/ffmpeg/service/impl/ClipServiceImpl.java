@@ -2,28 +2,39 @@ package com.example.ffmpeg.service.impl;
 
 import com.example.ffmpeg.dto.WatermarkRequest;
 import com.example.ffmpeg.service.ClipService;
+import com.example.ffmpeg.service.KeyframeIndexService;
+import com.example.ffmpeg.util.AnnotatedImageWriter;
 import com.example.ffmpeg.util.FFmpegUtil;
+import com.example.ffmpeg.util.KeyframeIndex;
+import com.example.ffmpeg.util.PacketRemuxer;
+import com.example.ffmpeg.util.VideoWatermarker;
 import lombok.extern.slf4j.Slf4j;
-import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import static org.bytedeco.ffmpeg.global.avcodec.*;
 import static org.bytedeco.ffmpeg.global.avformat.*;
@@ -33,6 +44,18 @@ import static org.bytedeco.ffmpeg.global.avutil.*;
 @Service
 public class ClipServiceImpl implements ClipService {
 
+    /** 关键帧图片编码并发上限 */
+    private static final int KEYFRAME_ENCODE_PARALLELISM = 4;
+
+    private final Executor videoEncodeExecutor;
+    private final KeyframeIndexService keyframeIndexService;
+
+    public ClipServiceImpl(@Qualifier("videoEncodeExecutor") Executor videoEncodeExecutor,
+                           KeyframeIndexService keyframeIndexService) {
+        this.videoEncodeExecutor = videoEncodeExecutor;
+        this.keyframeIndexService = keyframeIndexService;
+    }
+
     @Override
     public String clipVideo(String inputPath, String outputPath, double startTime, double duration,
                           boolean preserveQuality, String videoCodec, String audioCodec) throws Exception {
@@ -47,6 +70,21 @@ public class ClipServiceImpl implements ClipService {
             Files.createDirectories(outputDir);
         }
 
+        if (preserveQuality) {
+            // 保持原质量即原编码：直接复制数据包，从起点之前的关键帧开始
+            return remuxClip(inputPath, outputPath, startTime, duration);
+        }
+
+        return encodeClip(inputPath, outputPath, startTime, duration, false, videoCodec, audioCodec);
+    }
+
+    /**
+     * 解码并重新编码[startTime, startTime + duration)
+     *
+     * @param matchSource 为true时沿用源视频的编码格式、码率和编码选项，忽略videoCodec/audioCodec
+     */
+    private String encodeClip(String inputPath, String outputPath, double startTime, double duration,
+                              boolean matchSource, String videoCodec, String audioCodec) throws Exception {
         try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
             grabber.start();
 
@@ -60,7 +98,7 @@ public class ClipServiceImpl implements ClipService {
                     grabber.getAudioChannels());
 
             // 配置录制器
-            configureRecorder(recorder, grabber, preserveQuality, videoCodec, audioCodec);
+            configureRecorder(recorder, grabber, matchSource, videoCodec, audioCodec);
             recorder.start();
 
             // 计算结束时间戳
@@ -85,25 +123,55 @@ public class ClipServiceImpl implements ClipService {
 
     @Override
     public List<String> splitVideo(String inputPath, String outputPattern, double segmentDuration) throws Exception {
-        List<String> outputFiles = new ArrayList<>();
-        
+        return splitVideo(inputPath, outputPattern, segmentDuration, false);
+    }
+
+    @Override
+    public List<String> splitVideo(String inputPath, String outputPattern, double segmentDuration,
+                                   boolean reencode) throws Exception {
+        if (!Files.exists(Paths.get(inputPath))) {
+            throw new IllegalArgumentException("输入视频文件不存在: " + inputPath);
+        }
+        if (segmentDuration <= 0) {
+            throw new IllegalArgumentException("分段时长必须大于0");
+        }
+        Path outputDir = Paths.get(String.format(outputPattern, 1)).getParent();
+        if (outputDir != null && !Files.exists(outputDir)) {
+            Files.createDirectories(outputDir);
+        }
+
         try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
             grabber.start();
-            
+
+            if (!reencode) {
+                // 单次解复用，在每个分段边界后的第一个关键帧处切换输出
+                List<String> outputFiles = PacketRemuxer.split(grabber, outputPattern,
+                        (long) (segmentDuration * 1000000L));
+                log.info("包复制分割完成: {} -> {} 个片段", inputPath, outputFiles.size());
+                return outputFiles;
+            }
+
             double totalDuration = grabber.getLengthInTime() / 1000000.0; // 转换为秒
             int segments = (int) Math.ceil(totalDuration / segmentDuration);
-            
+
+            // 重新编码模式：各片段独立解码编码，在有界线程池上并行
+            List<CompletableFuture<String>> futures = new ArrayList<>();
             for (int i = 0; i < segments; i++) {
                 String outputPath = String.format(outputPattern, i + 1);
                 double startTime = i * segmentDuration;
                 double duration = Math.min(segmentDuration, totalDuration - startTime);
-                
-                clipVideo(inputPath, outputPath, startTime, duration, true, null, null);
-                outputFiles.add(outputPath);
+
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        // 按源视频的编码格式和码率重新编码
+                        return encodeClip(inputPath, outputPath, startTime, duration, true, null, null);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, videoEncodeExecutor));
             }
+            return joinAll(futures);
         }
-        
-        return outputFiles;
     }
 
     @Override
@@ -111,39 +179,188 @@ public class ClipServiceImpl implements ClipService {
         if (inputPaths.isEmpty()) {
             throw new IllegalArgumentException("输入视频列表为空");
         }
+        for (String inputPath : inputPaths) {
+            if (!Files.exists(Paths.get(inputPath))) {
+                throw new IllegalArgumentException("输入视频文件不存在: " + inputPath);
+            }
+        }
+        Path outputDir = Paths.get(outputPath).toAbsolutePath().getParent();
+        if (outputDir != null && !Files.exists(outputDir)) {
+            Files.createDirectories(outputDir);
+        }
 
-        // 获取第一个视频的信息作为基准
-        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPaths.get(0))) {
-            grabber.start();
-            
-            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath,
-                    grabber.getImageWidth(),
-                    grabber.getImageHeight(),
-                    grabber.getAudioChannels());
-            
-            // 配置录制器
-            configureRecorder(recorder, grabber, true, null, null);
-            recorder.start();
+        // 先探测所有输入，以第一个输入的编码参数为基准
+        List<PacketRemuxer.StreamInfo> probes = new ArrayList<>();
+        for (String inputPath : inputPaths) {
+            probes.add(PacketRemuxer.StreamInfo.probe(inputPath));
+        }
+        PacketRemuxer.StreamInfo reference = probes.get(0);
+        long transitionUs = parseTransitionUs(transition, probes);
+        boolean allIdentical = probes.stream().allMatch(probe -> probe.isIdentical(reference));
 
-            // 处理每个输入视频
+        if (transitionUs == 0 && allIdentical) {
+            PacketRemuxer.concat(inputPaths, outputPath);
+            log.info("数据包拼接完成: {} 个输入 -> {}", inputPaths.size(), outputPath);
+            return outputPath;
+        }
+
+        Path workDir = Files.createTempDirectory(outputDir, "merge_");
+        try {
+            // 统一转为MPEG-TS中转（参数集随码流携带）：参数一致的输入只复制数据包，不一致的按基准参数并行转码
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            int transcoded = 0;
             for (int i = 0; i < inputPaths.size(); i++) {
-                try (FFmpegFrameGrabber videoGrabber = new FFmpegFrameGrabber(inputPaths.get(i))) {
-                    videoGrabber.start();
-                    Frame frame;
-                    
-                    while ((frame = videoGrabber.grab()) != null) {
+                String inputPath = inputPaths.get(i);
+                String staged = workDir.resolve("input_" + i + ".ts").toString();
+                boolean compatible = probes.get(i).isConcatCompatible(reference);
+                if (!compatible) {
+                    transcoded++;
+                    log.info("输入编码参数与基准不一致，需转码: {} ({} / 基准 {})", inputPath,
+                            probes.get(i).describe(), reference.describe());
+                }
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        if (compatible) {
+                            remuxRange(inputPath, staged, 0, Long.MAX_VALUE);
+                        } else {
+                            encodeRange(inputPath, staged, 0, Long.MAX_VALUE, reference, true);
+                        }
+                        return staged;
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, videoEncodeExecutor));
+            }
+            List<String> stagedPaths = joinAll(futures);
+
+            if (transitionUs == 0) {
+                PacketRemuxer.concat(stagedPaths, outputPath);
+            } else {
+                // 转场只重新渲染相邻输入重叠的窗口，其余部分尽量复制数据包；
+                // 转场窗口的音频取后一个输入的开头，因此每个输入的音频为[0, 下一个转场开始)，整体按数据包复制
+                List<String> parts = new ArrayList<>();
+                List<PacketRemuxer.AudioRange> audio = new ArrayList<>();
+                for (int i = 0; i < stagedPaths.size(); i++) {
+                    long lengthUs = probes.get(i).lengthUs;
+                    long keepStartUs = i > 0 ? transitionUs : 0;
+                    long keepEndUs = i < stagedPaths.size() - 1 ? lengthUs - transitionUs : lengthUs;
+                    if (keepEndUs > keepStartUs) {
+                        parts.addAll(smartParts(stagedPaths.get(i), keepStartUs, keepEndUs, workDir,
+                                "part_" + i, reference, false));
+                    }
+                    if (i < stagedPaths.size() - 1) {
+                        String window = workDir.resolve("transition_" + i + ".ts").toString();
+                        renderCrossfade(stagedPaths.get(i), lengthUs - transitionUs,
+                                stagedPaths.get(i + 1), transitionUs, window, reference);
+                        parts.add(window);
+                    }
+                    if (reference.audioChannels > 0) {
+                        audio.add(new PacketRemuxer.AudioRange(stagedPaths.get(i), 0, keepEndUs));
+                    }
+                }
+                muxParts(parts, audio, workDir, outputPath);
+            }
+
+            log.info("合并完成: {} 个输入（转码 {} 个，转场 {}s）-> {}", inputPaths.size(), transcoded,
+                    transitionUs / 1000000.0, outputPath);
+            return outputPath;
+        } finally {
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * 解析转场参数：fade / crossfade / dissolve，可带时长（秒），如 fade:1.5；默认1秒
+     * 时长不超过最短输入的一半
+     *
+     * @return 转场时长（微秒），0表示无转场
+     */
+    private long parseTransitionUs(String transition, List<PacketRemuxer.StreamInfo> probes) {
+        if (transition == null || transition.isBlank() || probes.size() < 2) {
+            return 0;
+        }
+        String[] parts = transition.trim().toLowerCase().split(":");
+        switch (parts[0]) {
+            case "fade":
+            case "crossfade":
+            case "dissolve":
+                break;
+            default:
+                log.warn("不支持的转场效果: {}，按无转场合并", transition);
+                return 0;
+        }
+        double seconds = 1.0;
+        if (parts.length > 1) {
+            try {
+                seconds = Double.parseDouble(parts[1]);
+            } catch (NumberFormatException e) {
+                log.warn("转场时长无效: {}，按1秒处理", transition);
+            }
+        }
+        long shortest = probes.stream().mapToLong(probe -> probe.lengthUs).min().orElse(0);
+        return Math.max(0, Math.min((long) (seconds * 1000000L), shortest / 2));
+    }
+
+    /**
+     * 交叉淡化：A从aStartUs起与B的开头[0, durationUs)逐帧加权混合，只输出视频（音频取B的开头，由调用方复制）
+     */
+    private void renderCrossfade(String aPath, long aStartUs, String bPath, long durationUs,
+                                 String outputPath, PacketRemuxer.StreamInfo reference) throws Exception {
+        try (FFmpegFrameGrabber a = new FFmpegFrameGrabber(aPath);
+             FFmpegFrameGrabber b = new FFmpegFrameGrabber(bPath);
+             OpenCVFrameConverter.ToMat converterA = new OpenCVFrameConverter.ToMat();
+             OpenCVFrameConverter.ToMat converterB = new OpenCVFrameConverter.ToMat();
+             OpenCVFrameConverter.ToMat converterOut = new OpenCVFrameConverter.ToMat();
+             Mat blended = new Mat()) {
+            a.start();
+            b.start();
+            a.setTimestamp(aStartUs);
+
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath,
+                    reference.width, reference.height, 0);
+            configureMatchingEncoder(recorder, reference);
+            recorder.start();
+            try {
+                Frame frame;
+                while ((frame = b.grabImage()) != null && b.getTimestamp() < durationUs) {
+                    Frame frameA = a.grabImage();
+                    if (frameA == null) {
                         recorder.record(frame);
+                        continue;
                     }
-                    
-                    // TODO: 在这里添加转场效果的处理
+                    double alpha = Math.min(1.0, Math.max(0.0, b.getTimestamp() / (double) durationUs));
+                    Mat matA = converterA.convert(frameA);
+                    Mat matB = converterB.convert(frame);
+                    opencv_core.addWeighted(matA, 1.0 - alpha, matB, alpha, 0, blended);
+                    recorder.record(converterOut.convert(blended));
                 }
+            } finally {
+                recorder.stop();
+                recorder.release();
             }
+        }
+    }
 
-            recorder.stop();
-            recorder.release();
+    private List<String> joinAll(List<CompletableFuture<String>> futures) throws Exception {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(false));
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        List<String> results = new ArrayList<>();
+        for (CompletableFuture<String> future : futures) {
+            results.add(future.join());
         }
+        return results;
+    }
 
-        return outputPath;
+    private void deleteDirectory(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (Exception e) {
+            log.warn("清理临时目录失败: {} - {}", dir, e.getMessage());
+        }
     }
 
     @Override
@@ -159,56 +376,266 @@ public class ClipServiceImpl implements ClipService {
             Files.createDirectories(outputDir);
         }
 
+        return remuxClip(inputPath, outputPath, startTime, duration);
+    }
+
+    @Override
+    public String smartClip(String inputPath, String outputPath, double startTime, double duration) throws Exception {
+        // 验证输入文件
+        if (!Files.exists(Paths.get(inputPath))) {
+            throw new IllegalArgumentException("输入视频文件不存在: " + inputPath);
+        }
+
+        // 创建输出目录
+        Path outputDir = Paths.get(outputPath).toAbsolutePath().getParent();
+        if (outputDir != null && !Files.exists(outputDir)) {
+            Files.createDirectories(outputDir);
+        }
+
+        PacketRemuxer.StreamInfo source = PacketRemuxer.StreamInfo.probe(inputPath);
+        long startUs = (long) (startTime * 1000000L);
+        long endUs = Math.min((long) ((startTime + duration) * 1000000L), source.lengthUs);
+
+        Path workDir = Files.createTempDirectory(outputDir, "smartclip_");
+        try {
+            List<String> parts = smartParts(inputPath, startUs, endUs, workDir, "clip", source, true);
+            // 重新编码的片段只含视频，音频按数据包整体复制
+            List<PacketRemuxer.AudioRange> audio = new ArrayList<>();
+            if (source.audioChannels > 0) {
+                audio.add(new PacketRemuxer.AudioRange(inputPath, startUs, endUs));
+            }
+            muxParts(parts, audio, workDir, outputPath);
+            log.info("智能剪辑完成: {} -> {} ({} 个片段)", inputPath, outputPath, parts.size());
+            return outputPath;
+        } finally {
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * 拼接视频片段，再与按数据包拼接的音频复用到输出文件
+     *
+     * 片段中的重新编码部分只含视频，音频若在各片段中分别编码，每个拼接处都会留下编码器延迟造成的间隙
+     */
+    private void muxParts(List<String> videoParts, List<PacketRemuxer.AudioRange> audio, Path workDir,
+                          String outputPath) throws Exception {
+        String video = workDir.resolve("video.ts").toString();
+        PacketRemuxer.concat(videoParts, video);
+        String audioPath = null;
+        if (!audio.isEmpty()) {
+            audioPath = workDir.resolve("audio.ts").toString();
+            PacketRemuxer.concatAudio(audio, audioPath);
+        }
+        PacketRemuxer.mux(video, audioPath, outputPath);
+    }
+
+    /**
+     * 将[startUs, endUs)拆为MPEG-TS视频片段：起止处不完整的GOP按基准参数重新编码，中间的完整GOP复制数据包。
+     * 重新编码的片段不含音频，复制的片段带有的音频在复用时忽略，音频由调用方整体复制
+     *
+     * @param useIndex 是否使用关键帧索引；workDir中的临时输入用后即删，只扫描一次，不建立索引
+     * @return 按时间顺序的片段路径（位于workDir）
+     */
+    private List<String> smartParts(String inputPath, long startUs, long endUs, Path workDir, String prefix,
+                                    PacketRemuxer.StreamInfo reference, boolean useIndex) throws Exception {
+        long lengthUs;
+        long frameUs;
+        List<Long> keyframes;
+        KeyframeIndex index = useIndex ? keyframeIndexService.find(inputPath) : null;
+        if (index != null) {
+            lengthUs = index.getLengthUs();
+            frameUs = (long) (1000000L / (index.getFrameRate() > 0 ? index.getFrameRate() : 30));
+            keyframes = index.between(startUs, endUs);
+        } else {
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+                grabber.start();
+                lengthUs = grabber.getLengthInTime();
+                frameUs = (long) (1000000L / (grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30));
+                keyframes = PacketRemuxer.scanKeyframes(grabber, startUs, endUs);
+            }
+        }
+
+        List<String> parts = new ArrayList<>();
+        if (keyframes.isEmpty()) {
+            log.debug("范围内没有关键帧，整段重新编码: {}s - {}s", startUs / 1000000.0, endUs / 1000000.0);
+            String whole = workDir.resolve(prefix + "_whole.ts").toString();
+            encodeRange(inputPath, whole, startUs, endUs, reference, false);
+            parts.add(whole);
+            return parts;
+        }
+
+        long firstKey = keyframes.get(0);
+        long lastKey = keyframes.get(keyframes.size() - 1);
+        boolean toEnd = lengthUs - endUs < frameUs;
+        boolean needHead = firstKey - startUs >= frameUs / 2;
+        boolean needTail = !toEnd && endUs - lastKey >= frameUs / 2;
+        // 复制区间：[首个关键帧, 末个关键帧)，剪到文件末尾时复制到结束
+        long copyEndUs = toEnd ? endUs : lastKey;
+
+        if (needHead) {
+            String head = workDir.resolve(prefix + "_head.ts").toString();
+            encodeRange(inputPath, head, startUs, firstKey, reference, false);
+            parts.add(head);
+        }
+        if (copyEndUs > firstKey) {
+            String middle = workDir.resolve(prefix + "_copy.ts").toString();
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+                grabber.start();
+                FFmpegFrameRecorder recorder = PacketRemuxer.openRecorder(grabber, middle);
+                try {
+                    PacketRemuxer.copyRange(grabber, recorder, firstKey, copyEndUs, !toEnd,
+                            index != null ? index.atOrBefore(firstKey) : null);
+                } finally {
+                    recorder.stop();
+                    recorder.release();
+                }
+            }
+            parts.add(middle);
+        }
+        if (needTail) {
+            String tail = workDir.resolve(prefix + "_tail.ts").toString();
+            encodeRange(inputPath, tail, lastKey, endUs, reference, false);
+            parts.add(tail);
+        }
+
+        log.debug("智能剪辑片段: 重新编码 {}s，复制 {}s",
+                ((needHead ? firstKey - startUs : 0) + (needTail ? endUs - lastKey : 0)) / 1000000.0,
+                Math.max(0, copyEndUs - firstKey) / 1000000.0);
+        return parts;
+    }
+
+    /**
+     * 复制[startUs, endUs]的数据包到新文件（起点对齐到关键帧）
+     */
+    private void remuxRange(String inputPath, String outputPath, long startUs, long endUs) throws Exception {
         try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
             grabber.start();
+            FFmpegFrameRecorder recorder = PacketRemuxer.openRecorder(grabber, outputPath);
+            try {
+                PacketRemuxer.copyRange(grabber, recorder, startUs, endUs);
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        }
+    }
 
-            // 检查是否支持无损剪辑
-            if (!isSupportLosslessClip(grabber)) {
-                throw new UnsupportedOperationException("当前视频不支持无损剪辑，需要H.264编码的MP4/MOV/M4V格式视频");
+    /**
+     * 解码[startUs, endUs)并按基准编码参数重新编码为MPEG-TS片段（参数集随码流携带，便于与复制的片段拼接）
+     *
+     * @param withAudio 为false时只编码视频，音频由调用方整体按数据包复制
+     */
+    private void encodeRange(String inputPath, String outputPath, long startUs, long endUs,
+                             PacketRemuxer.StreamInfo reference, boolean withAudio) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+            grabber.start();
+            if (startUs > 0) {
+                grabber.setTimestamp(startUs);
             }
 
+            // 分辨率和采样参数不同时由录制器缩放/重采样到基准参数
             FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath,
-                    grabber.getImageWidth(),
-                    grabber.getImageHeight(),
-                    grabber.getAudioChannels());
-
-            // 配置无损剪辑的参数
-            recorder.setFormat(grabber.getFormat());
-            recorder.setVideoCodec(grabber.getVideoCodec());
-            recorder.setAudioCodec(grabber.getAudioCodec());
-            recorder.setVideoOptions(grabber.getVideoOptions());
-            recorder.setAudioOptions(grabber.getAudioOptions());
-            
-            // 设置起始位置
-            grabber.setTimestamp((long) (startTime * 1000000L));
-            
+                    reference.width, reference.height, withAudio ? reference.audioChannels : 0);
+            configureMatchingEncoder(recorder, reference);
             recorder.start();
+            try {
+                Frame frame;
+                while ((frame = withAudio ? grabber.grab() : grabber.grabImage()) != null) {
+                    if (grabber.getTimestamp() >= endUs) {
+                        break;
+                    }
+                    recorder.record(frame);
+                }
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        }
+    }
 
-            // 计算结束时间戳
-            long endTimestamp = (long) ((startTime + duration) * 1000000L);
-            Frame frame;
+    /**
+     * 编码器参数与基准保持一致：编码格式、像素格式、帧率、码率和profile
+     */
+    private void configureMatchingEncoder(FFmpegFrameRecorder recorder, PacketRemuxer.StreamInfo reference) {
+        recorder.setFormat("mpegts");
+        recorder.setVideoCodec(reference.videoCodec);
+        recorder.setPixelFormat(reference.pixelFormat);
+        recorder.setFrameRate(reference.frameRate);
+        recorder.setVideoBitrate((int) reference.videoBitrate);
+        String profile = profileName(reference.videoCodec, reference.profile);
+        if (profile != null) {
+            recorder.setVideoOption("profile", profile);
+        }
 
-            while ((frame = grabber.grab()) != null) {
-                if (grabber.getTimestamp() > endTimestamp) {
-                    break;
-                }
-                recorder.record(frame);
+        if (reference.audioChannels > 0) {
+            recorder.setAudioCodec(reference.audioCodec);
+            recorder.setAudioBitrate(reference.audioBitrate);
+            recorder.setSampleRate(reference.sampleRate);
+        }
+    }
+
+    private String profileName(int codecId, int profile) {
+        if (codecId == AV_CODEC_ID_H264) {
+            if (profile == FF_PROFILE_H264_BASELINE || profile == FF_PROFILE_H264_CONSTRAINED_BASELINE) {
+                return "baseline";
+            } else if (profile == FF_PROFILE_H264_MAIN) {
+                return "main";
+            } else if (profile == FF_PROFILE_H264_HIGH) {
+                return "high";
+            } else if (profile == FF_PROFILE_H264_HIGH_10) {
+                return "high10";
+            } else if (profile == FF_PROFILE_H264_HIGH_422) {
+                return "high422";
+            } else if (profile == FF_PROFILE_H264_HIGH_444_PREDICTIVE) {
+                return "high444";
             }
+            return null;
+        }
+        if (codecId == AV_CODEC_ID_HEVC) {
+            if (profile == FF_PROFILE_HEVC_MAIN) {
+                return "main";
+            } else if (profile == FF_PROFILE_HEVC_MAIN_10) {
+                return "main10";
+            }
+            return null;
+        }
+        return null;
+    }
 
-            recorder.stop();
-            recorder.release();
+    /**
+     * 封装层剪辑：grabPacket/recordPacket复制压缩数据包并平移时间戳，不解码不重新编码
+     *
+     * 只能在关键帧处切入，输出起点为startTime处或之前最近的关键帧
+     */
+    private String remuxClip(String inputPath, String outputPath, double startTime, double duration) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+            grabber.start();
+
+            FFmpegFrameRecorder recorder = PacketRemuxer.openRecorder(grabber, outputPath);
+            try {
+                long startUs = (long) (startTime * 1000000L);
+                long endUs = (long) ((startTime + duration) * 1000000L);
+                KeyframeIndex index = startUs > 0 ? keyframeIndexService.find(inputPath) : null;
+                long actualStartUs = PacketRemuxer.copyRange(grabber, recorder, startUs, endUs, false,
+                        index != null ? index.atOrBefore(startUs) : null);
+                log.info("包复制剪辑完成: {} -> {} (起点 {}s，请求 {}s)", inputPath, outputPath,
+                        actualStartUs / 1000000.0, startTime);
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
 
             return outputPath;
         }
     }
 
     private void configureRecorder(FFmpegFrameRecorder recorder, FFmpegFrameGrabber grabber,
-                                 boolean preserveQuality, String videoCodec, String audioCodec) {
+                                 boolean matchSource, String videoCodec, String audioCodec) {
         // 设置基本参数
         recorder.setFormat(grabber.getFormat());
         
         // 设置视频相关参数
-        if (preserveQuality) {
+        if (matchSource) {
             recorder.setVideoCodec(grabber.getVideoCodec());
             recorder.setVideoBitrate(grabber.getVideoBitrate());
             recorder.setVideoOptions(grabber.getVideoOptions());
@@ -218,7 +645,7 @@ public class ClipServiceImpl implements ClipService {
         }
         
         // 设置音频相关参数
-        if (preserveQuality) {
+        if (matchSource) {
             recorder.setAudioCodec(grabber.getAudioCodec());
             recorder.setAudioBitrate(grabber.getAudioBitrate());
             recorder.setAudioOptions(grabber.getAudioOptions());
@@ -251,79 +678,125 @@ public class ClipServiceImpl implements ClipService {
         }
     }
 
-    private boolean isSupportLosslessClip(FFmpegFrameGrabber grabber) {
-        // 检查容器格式
-        String format = grabber.getFormat();
-        if (format == null) {
-            return false;
-        }
+    @Override
+    public Mono<List<Map<String, Object>>> getKeyframes(String inputPath, String outputDir, boolean extractImages, String imageFormat, int imageQuality) {
+        // 列出全部关键帧本身就要完整扫描，直接建立索引（只读数据包头或解复用器索引，不解码），下次复用
+        Mono<List<PacketRemuxer.Keyframe>> scan = Mono.fromCallable(() -> {
+            KeyframeIndex index = keyframeIndexService.findOrBuild(inputPath);
+            if (index != null) {
+                return index.getKeyframes();
+            }
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+                grabber.start();
+                return PacketRemuxer.listKeyframes(grabber);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
 
-        boolean isSupportedContainer = false;
-        String[] formats = format.split(",");
-        for (String fmt : formats) {
-            fmt = fmt.trim().toLowerCase();
-            if (fmt.equals("mp4") || fmt.equals("mov") || fmt.equals("m4v")) {
-                isSupportedContainer = true;
-                break;
+        return scan.flatMap(keyframes -> {
+            if (!extractImages || outputDir == null) {
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (PacketRemuxer.Keyframe keyframe : keyframes) {
+                    result.add(keyframeInfo(keyframe));
+                }
+                return Mono.just(result);
             }
-        }
+            return extractKeyframeImages(inputPath, outputDir, keyframes, imageFormat, imageQuality);
+        });
+    }
 
-        if (!isSupportedContainer) {
-            return false;
-        }
+    /**
+     * 逐个跳转到关键帧只解码该帧，图片编码写盘并行执行
+     *
+     * 解码在同一个grabber上串行进行；每帧复制后交给编码任务，同时在途的帧数不超过编码并发数
+     */
+    private Mono<List<Map<String, Object>>> extractKeyframeImages(String inputPath, String outputDir,
+                                                                   List<PacketRemuxer.Keyframe> keyframes,
+                                                                   String imageFormat, int imageQuality) {
+        int parallelism = Math.max(1, Math.min(KEYFRAME_ENCODE_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+
+        Flux<DecodedKeyframe> decoded = Flux.using(
+                () -> {
+                    Files.createDirectories(Paths.get(outputDir));
+                    FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath);
+                    grabber.start();
+                    return grabber;
+                },
+                grabber -> Flux.fromIterable(keyframes)
+                        .concatMap(keyframe -> Mono.fromCallable(() -> decodeKeyframe(grabber, keyframe)), 1),
+                grabber -> {
+                    try {
+                        grabber.close();
+                    } catch (Exception e) {
+                        log.warn("关闭视频读取器失败: {}", e.getMessage());
+                    }
+                });
 
-        // 检查视频编码
-        String videoCodecName = grabber.getVideoCodecName();
-        return videoCodecName != null && (
-            videoCodecName.toLowerCase().contains("h264") || 
-            videoCodecName.toLowerCase().contains("avc")
-        );
+        return decoded
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapSequential(item -> Mono.fromCallable(() -> writeKeyframeImage(item, outputDir, imageFormat, imageQuality))
+                        .subscribeOn(Schedulers.boundedElastic()), parallelism, 1)
+                .collectList();
     }
 
-    @Override
-    public Mono<List<Map<String, Object>>> getKeyframes(String inputPath, String outputDir, boolean extractImages, String imageFormat, int imageQuality) {
-        return Mono.fromCallable(() -> {
-            List<Map<String, Object>> keyframes = new ArrayList<>();
-            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath);
-            grabber.start();
-
-            try {
-                // 如果需要提取图片，创建输出目录
-                if (extractImages && outputDir != null) {
-                    Files.createDirectories(Paths.get(outputDir));
-                }
+    /**
+     * 跳转到关键帧并解码该帧；目标即关键帧，跳转后无需解码前导帧
+     */
+    private DecodedKeyframe decodeKeyframe(FFmpegFrameGrabber grabber, PacketRemuxer.Keyframe keyframe) throws Exception {
+        grabber.setVideoTimestamp(keyframe.ptsUs);
+        Frame frame = grabber.grabImage();
+        // grabber会复用帧缓冲区，交给其他线程前需要复制
+        return new DecodedKeyframe(keyframe, frame != null && frame.image != null ? frame.clone() : null);
+    }
 
-                Frame frame;
-                int frameNumber = 0;
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-
-                while ((frame = grabber.grab()) != null) {
-                    if (frame.keyFrame) {
-                        Map<String, Object> keyframe = new HashMap<>();
-                        double timestamp = grabber.getTimestamp() / 1000000.0; // 转换为秒
-                        keyframe.put("timestamp", timestamp);
-                        keyframe.put("frameNumber", frameNumber);
-                        keyframe.put("type", "I"); // I帧就是关键帧
-
-                        // 如果需要提取图片
-                        if (extractImages && outputDir != null && frame.image != null) {
-                            String imagePath = String.format("%s/keyframe_%d.%s", outputDir, frameNumber, imageFormat);
-                            BufferedImage image = converter.convert(frame);
-                            ImageIO.write(image, imageFormat, new File(imagePath));
-                            keyframe.put("imagePath", imagePath);
-                        }
+    private Map<String, Object> writeKeyframeImage(DecodedKeyframe item, String outputDir,
+                                                   String imageFormat, int imageQuality) throws Exception {
+        Map<String, Object> keyframe = keyframeInfo(item.keyframe);
+        if (item.frame == null) {
+            return keyframe;
+        }
 
-                        keyframes.add(keyframe);
-                    }
-                    frameNumber++;
+        String imagePath = String.format("%s/keyframe_%d.%s", outputDir, item.keyframe.frameNumber, imageFormat);
+        String format = AnnotatedImageWriter.normalizeFormat(imageFormat);
+        try {
+            if (format != null) {
+                try (OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat()) {
+                    AnnotatedImageWriter.write(converter.convert(item.frame), imagePath, format, imageQuality);
+                }
+            } else {
+                // OpenCV不支持的格式（bmp/gif等）仍使用ImageIO
+                try (Java2DFrameConverter converter = new Java2DFrameConverter()) {
+                    ImageIO.write(converter.convert(item.frame), imageFormat, new File(imagePath));
                 }
-            } finally {
-                grabber.stop();
-                grabber.release();
             }
+        } finally {
+            item.frame.close();
+        }
+        keyframe.put("imagePath", imagePath);
+        return keyframe;
+    }
 
-            return keyframes;
-        });
+    private Map<String, Object> keyframeInfo(PacketRemuxer.Keyframe keyframe) {
+        Map<String, Object> info = new HashMap<>();
+        info.put("timestamp", keyframe.ptsUs / 1000000.0); // 转换为秒
+        info.put("frameNumber", keyframe.frameNumber);
+        info.put("type", "I"); // I帧就是关键帧
+        if (keyframe.position >= 0) {
+            info.put("position", keyframe.position);
+        }
+        return info;
+    }
+
+    /**
+     * 已解码的关键帧（帧数据为副本，无图像时为null）
+     */
+    private static class DecodedKeyframe {
+        final PacketRemuxer.Keyframe keyframe;
+        final Frame frame;
+
+        DecodedKeyframe(PacketRemuxer.Keyframe keyframe, Frame frame) {
+            this.keyframe = keyframe;
+            this.frame = frame;
+        }
     }
 
     @Override
@@ -336,102 +809,12 @@ public class ClipServiceImpl implements ClipService {
             Map<String, Object> result = new HashMap<>();
             result.put("success", false);
 
-            // 读取水印图片
-            BufferedImage watermark = ImageIO.read(new File(request.getWatermarkPath()));
-            
-            // 获取视频信息
-            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(request.getInputPath());
-            grabber.start();
-            
-            // 计算水印尺寸
-            int videoWidth = grabber.getImageWidth();
-            int videoHeight = grabber.getImageHeight();
-            int watermarkWidth = (int) (videoWidth * request.getScale());
-            int watermarkHeight = (int) (watermark.getHeight() * ((float) watermarkWidth / watermark.getWidth()));
-            
-            // 缩放水印图片
-            BufferedImage scaledWatermark = new BufferedImage(watermarkWidth, watermarkHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = scaledWatermark.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.drawImage(watermark, 0, 0, watermarkWidth, watermarkHeight, null);
-            g2d.dispose();
-            
-            // 计算水印位置
-            int x = 0, y = 0;
-            switch (request.getPosition().toLowerCase()) {
-                case "topleft":
-                    x = request.getMargin();
-                    y = request.getMargin();
-                    break;
-                case "topright":
-                    x = videoWidth - watermarkWidth - request.getMargin();
-                    y = request.getMargin();
-                    break;
-                case "bottomleft":
-                    x = request.getMargin();
-                    y = videoHeight - watermarkHeight - request.getMargin();
-                    break;
-                case "center":
-                    x = (videoWidth - watermarkWidth) / 2;
-                    y = (videoHeight - watermarkHeight) / 2;
-                    break;
-                default: // bottomright
-                    x = videoWidth - watermarkWidth - request.getMargin();
-                    y = videoHeight - watermarkHeight - request.getMargin();
-                    break;
-            }
-            
-            // 创建输出目录
-            Path outputPath = Paths.get(request.getOutputPath());
-            Files.createDirectories(outputPath.getParent());
-            
-            // 配置输出
-            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(
-                request.getOutputPath(),
-                grabber.getImageWidth(),
-                grabber.getImageHeight()
-            );
-            
-            // 复制原视频的格式设置
-            recorder.setFormat(grabber.getFormat());
-            recorder.setFrameRate(grabber.getFrameRate());
-            recorder.setVideoCodec(request.isPreserveQuality() ? grabber.getVideoCodec() : avcodec.AV_CODEC_ID_H264);
-            recorder.setVideoBitrate(request.isPreserveQuality() ? grabber.getVideoBitrate() : 2000000);
-            
-            // 复制音频设置
-            recorder.setAudioChannels(grabber.getAudioChannels());
-            recorder.setAudioCodec(grabber.getAudioCodec());
-            recorder.setSampleRate(grabber.getSampleRate());
-            recorder.setAudioBitrate(grabber.getAudioBitrate());
-            
-            recorder.start();
-            
-            // 处理每一帧
-            Frame frame;
-            while ((frame = grabber.grab()) != null) {
-                if (frame.image != null) {
-                    // 转换Frame为BufferedImage
-                    Java2DFrameConverter converter = new Java2DFrameConverter();
-                    BufferedImage image = converter.convert(frame);
-                    
-                    // 在图像上绘制水印
-                    Graphics2D g2 = image.createGraphics();
-                    g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, request.getOpacity()));
-                    g2.drawImage(scaledWatermark, x, y, null);
-                    g2.dispose();
-                    
-                    // 转换回Frame并写入
-                    frame = converter.convert(image);
-                }
-                recorder.record(frame);
-            }
-            
-            // 清理资源
-            recorder.stop();
-            recorder.release();
-            grabber.stop();
-            grabber.release();
-            
+            // 滤镜图在原生代码中完成缩放、透明度和叠加
+            long start = System.currentTimeMillis();
+            VideoWatermarker.overlay(request);
+            log.info("水印添加完成: {} -> {}，耗时 {}ms", request.getInputPath(), request.getOutputPath(),
+                    System.currentTimeMillis() - start);
+
             result.put("success", true);
             result.put("outputPath", request.getOutputPath());
             return result;
@@ -1,20 +1,22 @@
 package com.example.ffmpeg.service.impl;
 
+import com.example.ffmpeg.config.AnnotationOutputConfig;
 import com.example.ffmpeg.dto.DroneImageRequest;
 import com.example.ffmpeg.dto.PersonDetection;
+import com.example.ffmpeg.service.AnnotationOutputTracker;
 import com.example.ffmpeg.service.DatabaseService;
 import com.example.ffmpeg.service.DroneImageDetectionService;
 import com.example.ffmpeg.service.QwenApiService;
-import lombok.RequiredArgsConstructor;
+import com.example.ffmpeg.util.AnnotatedImageWriter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,14 +25,27 @@ import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class DroneImageDetectionServiceImpl implements DroneImageDetectionService {
 
     private final QwenApiService qwenApiService;
     private final DatabaseService databaseService;
+    private final AnnotationOutputConfig outputConfig;
+    private final AnnotationOutputTracker outputTracker;
+    private final Executor annotationWriteExecutor;
+
+    public DroneImageDetectionServiceImpl(QwenApiService qwenApiService, DatabaseService databaseService,
+                                          AnnotationOutputConfig outputConfig, AnnotationOutputTracker outputTracker,
+                                          @Qualifier("annotationWriteExecutor") Executor annotationWriteExecutor) {
+        this.qwenApiService = qwenApiService;
+        this.databaseService = databaseService;
+        this.outputConfig = outputConfig;
+        this.outputTracker = outputTracker;
+        this.annotationWriteExecutor = annotationWriteExecutor;
+    }
 
     private static final Color[] DETECTION_COLORS = {
             Color.GREEN, Color.BLUE, Color.RED, Color.CYAN,
@@ -50,21 +65,22 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
                         throw new IllegalArgumentException("图片文件不存在: " + request.getImagePath());
                     }
 
-                    return request;
+                    // 只解码一次：原图用于标注，JPEG用于送检；超大图像只解码降采样画布
+                    return qwenApiService.prepareImageFile(request.getImagePath(), request.getMaxImageSize(),
+                            outputConfig.getLargeImagePixels(), outputConfig.getLargeImageMaxSize());
                 })
                 .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(req -> qwenApiService.detectPersonsInImage(
-                        req.getImagePath(),
-                        apiKey,
-                        "qwen2.5-vl-72b-instruct",
-                        req.getMaxImageSize(),
-                        req.getConfThreshold(),
-                        120
-                ))
-                .flatMap(detections -> {
-                    long processingTime = System.currentTimeMillis() - startTime;
-                    return processDetectionResult(request, detections, processingTime);
-                })
+                .flatMap(prepared -> qwenApiService.detectPersonsInImage(
+                                prepared.encoded,
+                                apiKey,
+                                "qwen2.5-vl-72b-instruct",
+                                request.getConfThreshold(),
+                                120)
+                        .flatMap(detections -> {
+                            long processingTime = System.currentTimeMillis() - startTime;
+                            return processDetectionResult(request, prepared.image, prepared.imageScale,
+                                    detections, processingTime);
+                        }))
                 .onErrorResume(ex -> {
                     log.error("图像检测失败: {}", ex.getMessage(), ex);
                     Map<String, Object> errorResult = new HashMap<>();
@@ -74,10 +90,28 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
                 });
     }
 
+    @Override
+    public Flux<Map<String, Object>> detectBatch(Flux<DroneImageRequest> requests, String apiKey, int concurrency) {
+        return requests
+                .index()
+                .flatMap(indexed -> {
+                    DroneImageRequest request = indexed.getT2();
+                    return detectAndVisualizePersons(request, apiKey)
+                            .map(result -> {
+                                Map<String, Object> line = new HashMap<>(result);
+                                line.put("index", indexed.getT1());
+                                line.put("imagePath", request.getImagePath());
+                                return line;
+                            });
+                }, Math.max(1, concurrency), 1);
+    }
+
     private Mono<Map<String, Object>> processDetectionResult(DroneImageRequest request,
+                                                             BufferedImage image,
+                                                             double imageScale,
                                                              List<PersonDetection> detections,
                                                              long processingTime) {
-        return drawDetections(request, detections, processingTime)  // 传递 processingTime
+        return drawDetections(request, image, imageScale, detections, processingTime)  // 传递 processingTime
                 .flatMap(result -> {
                     // 保存到数据库
                     String imageName = Paths.get(request.getImagePath()).getFileName().toString();
@@ -100,19 +134,15 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
     }
 
     private Mono<Map<String, Object>> drawDetections(DroneImageRequest request,
+                                                     BufferedImage image,
+                                                     double imageScale,
                                                      List<PersonDetection> detections,
                                                      long processingTime) {
         return Mono.fromCallable(() -> {
             Map<String, Object> result = new HashMap<>();
 
             try {
-                // 读取原始图片
-                BufferedImage image = ImageIO.read(new File(request.getImagePath()));
-                if (image == null) {
-                    throw new RuntimeException("无法读取图片: " + request.getImagePath());
-                }
-
-                // 绘制检测结果
+                // 在检测前解码得到的底图上绘制检测结果（超大图像的底图为降采样画布，检测框按比例换算）
                 Graphics2D g2d = image.createGraphics();
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
@@ -120,10 +150,10 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
                     PersonDetection detection = detections.get(i);
                     double[] bbox = detection.getBbox();
 
-                    int x1 = Math.max(0, Math.min((int) bbox[0], image.getWidth() - 1));
-                    int y1 = Math.max(0, Math.min((int) bbox[1], image.getHeight() - 1));
-                    int x2 = Math.max(x1 + 1, Math.min((int) bbox[2], image.getWidth()));
-                    int y2 = Math.max(y1 + 1, Math.min((int) bbox[3], image.getHeight()));
+                    int x1 = Math.max(0, Math.min((int) (bbox[0] * imageScale), image.getWidth() - 1));
+                    int y1 = Math.max(0, Math.min((int) (bbox[1] * imageScale), image.getHeight() - 1));
+                    int x2 = Math.max(x1 + 1, Math.min((int) (bbox[2] * imageScale), image.getWidth()));
+                    int y2 = Math.max(y1 + 1, Math.min((int) (bbox[3] * imageScale), image.getHeight()));
 
                     Color color = DETECTION_COLORS[i % DETECTION_COLORS.length];
 
@@ -157,14 +187,11 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
 
                 g2d.dispose();
 
-                // 保存结果图片
-                String outputPath = generateOutputPath(request);
+                // 保存结果图片（异步写出，不阻塞响应，通过输出状态查询是否可用）
+                String outputFormat = resolveOutputFormat(request);
+                String outputPath = generateOutputPath(request, outputFormat);
                 if (outputPath != null) {
-                    Path outputDir = Paths.get(outputPath).getParent();
-                    if (outputDir != null && !Files.exists(outputDir)) {
-                        Files.createDirectories(outputDir);
-                    }
-                    ImageIO.write(image, "png", new File(outputPath));
+                    writeAnnotatedImage(request, image, outputPath, outputFormat);
                 }
 
                 // 转换为Web可访问路径
@@ -178,6 +205,9 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
                 result.put("totalPersons", detections.size());
                 result.put("outputImagePath", webPath);      // 前端需要的字段名 - Web访问路径
                 result.put("outputPath", outputPath);        // 本地路径（与原有字段兼容）
+                result.put("outputFormat", outputFormat);
+                result.put("outputReady", false);            // 标注图片异步写出
+                result.put("outputScale", imageScale);       // 标注图片相对原图的比例（超大图像小于1）
                 result.put("confidenceThreshold", request.getConfThreshold());
                 result.put("processingTime", processingTime); // 使用传递进来的 processingTime
 
@@ -191,12 +221,56 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
         }).subscribeOn(Schedulers.boundedElastic());
     }
 
+    /**
+     * 在写出线程池中写出标注图片；写出积压时在当前线程同步写出
+     */
+    private void writeAnnotatedImage(DroneImageRequest request, BufferedImage image,
+                                     String outputPath, String outputFormat) {
+        int quality = request.getOutputQuality() != null ? request.getOutputQuality() : outputConfig.getQuality();
+        int maxSize = request.getOutputMaxSize() != null ? request.getOutputMaxSize() : outputConfig.getMaxSize();
+
+        outputTracker.markPending(outputPath);
+        annotationWriteExecutor.execute(() -> {
+            try {
+                Path outputDir = Paths.get(outputPath).getParent();
+                if (outputDir != null && !Files.exists(outputDir)) {
+                    Files.createDirectories(outputDir);
+                }
+                AnnotatedImageWriter.write(image, outputPath, outputFormat, quality, maxSize);
+                outputTracker.markReady(outputPath);
+                log.debug("标注图片已保存: {}", outputPath);
+            } catch (Exception ex) {
+                outputTracker.markFailed(outputPath, ex.getMessage());
+                log.error("保存标注图片失败: {} - {}", outputPath, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 确定输出格式：指定输出路径的扩展名优先，其次为请求参数和全局配置
+     */
+    private String resolveOutputFormat(DroneImageRequest request) {
+        if (request.getOutputPath() != null && !request.getOutputPath().isEmpty()) {
+            String fromPath = AnnotatedImageWriter.formatOf(request.getOutputPath());
+            if (fromPath != null) {
+                return fromPath;
+            }
+        }
+        String format = AnnotatedImageWriter.normalizeFormat(request.getOutputFormat());
+        if (format == null) {
+            format = AnnotatedImageWriter.normalizeFormat(outputConfig.getFormat());
+        }
+        return format != null ? format : "png";
+    }
+
     /**
      * 生成输出文件路径
      */
-    private String generateOutputPath(DroneImageRequest request) {
+    private String generateOutputPath(DroneImageRequest request, String outputFormat) {
         if (request.getOutputPath() != null && !request.getOutputPath().isEmpty()) {
-            return request.getOutputPath();
+            // 编码器按扩展名选择，无可识别扩展名时补上
+            return AnnotatedImageWriter.formatOf(request.getOutputPath()) != null ?
+                    request.getOutputPath() : request.getOutputPath() + "." + outputFormat;
         }
 
         // 自动生成输出路径
@@ -207,7 +281,7 @@ public class DroneImageDetectionServiceImpl implements DroneImageDetectionServic
                     filename.substring(0, filename.lastIndexOf('.')) : filename;
 
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            return String.format("outputs/%s_detected_%s.png", nameWithoutExt, timestamp);
+            return String.format("outputs/%s_detected_%s.%s", nameWithoutExt, timestamp, outputFormat);
         } catch (Exception e) {
             log.warn("生成输出路径失败: {}", e.getMessage());
             return null;
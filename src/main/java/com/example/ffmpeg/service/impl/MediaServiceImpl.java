@@ -3,20 +3,39 @@ package com.example.ffmpeg.service.impl;
 import com.example.ffmpeg.dto.MediaInfo;
 import com.example.ffmpeg.dto.SubtitleInfo;
 import com.example.ffmpeg.dto.TranscodeRequest;
+import com.example.ffmpeg.service.KeyframeIndexService;
 import com.example.ffmpeg.service.MediaService;
+import com.example.ffmpeg.service.TranscodeProgressTracker;
 import com.example.ffmpeg.util.FFmpegUtil;
+import com.example.ffmpeg.util.KeyframeIndex;
+import com.example.ffmpeg.util.ParallelTranscoder;
+import com.example.ffmpeg.util.RenditionTranscoder;
+import com.example.ffmpeg.util.SegmentedOutput;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 @Slf4j
 @Service
 public class MediaServiceImpl implements MediaService {
 
+    private final TranscodeProgressTracker progressTracker;
+    private final KeyframeIndexService keyframeIndexService;
+    private final Executor videoEncodeExecutor;
+
+    public MediaServiceImpl(TranscodeProgressTracker progressTracker, KeyframeIndexService keyframeIndexService,
+                            @Qualifier("videoEncodeExecutor") Executor videoEncodeExecutor) {
+        this.progressTracker = progressTracker;
+        this.keyframeIndexService = keyframeIndexService;
+        this.videoEncodeExecutor = videoEncodeExecutor;
+    }
+
     @Override
     public Mono<MediaInfo> extractMediaInfo(String filePath) {
         return Mono.fromCallable(() -> {
@@ -51,15 +70,48 @@ public class MediaServiceImpl implements MediaService {
     @Override
     public Mono<String> transcodeMedia(TranscodeRequest request) {
         return Mono.fromCallable(() -> {
-            FFmpegUtil.transcodeVideo(
+            if (request.getRenditions() != null && !request.getRenditions().isEmpty()) {
+                // 多码率版本：只解码一次，各版本并行编码
+                List<String> outputs = RenditionTranscoder.transcode(
+                    request.getInputPath(),
+                    request.getOutputPath(),
+                    request.getRenditions(),
+                    request.getVideoCodec(),
+                    request.getAudioCodec(),
+                    progressTracker
+                );
+                return "转码完成: " + String.join(", ", outputs);
+            }
+
+            if (request.getParallelChunks() != null && request.getParallelChunks() > 1
+                    && !SegmentedOutput.isSegmented(SegmentedOutput.normalizeFormat(request.getFormat()))) {
+                // 分段并行：在关键帧处切分，各段独立编码后按数据包拼接
+                KeyframeIndex index = keyframeIndexService.find(request.getInputPath());
+                String outputPath = ParallelTranscoder.transcode(
+                    request.getInputPath(),
+                    request.getOutputPath(),
+                    request.getVideoCodec(),
+                    request.getAudioCodec(),
+                    request.getResolution(),
+                    request.getBitrate(),
+                    request.getParallelChunks(),
+                    index != null ? index.between(0, Long.MAX_VALUE) : null,
+                    videoEncodeExecutor
+                );
+                return "转码完成: " + outputPath;
+            }
+
+            String outputPath = FFmpegUtil.transcodeVideo(
                 request.getInputPath(),
                 request.getOutputPath(),
                 request.getVideoCodec(),
                 request.getAudioCodec(),
                 request.getResolution(),
-                request.getBitrate()
+                request.getBitrate(),
+                request.getFormat(),
+                request.getSegmentSeconds() != null ? request.getSegmentSeconds() : SegmentedOutput.DEFAULT_SEGMENT_SECONDS
             );
-            return "转码完成";
+            return "转码完成: " + outputPath;
         }).subscribeOn(Schedulers.boundedElastic());
     }
 } 
\ No newline at end of file
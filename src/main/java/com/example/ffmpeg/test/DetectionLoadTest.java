@@ -0,0 +1,142 @@
+package com.example.ffmpeg.test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * 图片/视频检测接口压测工具
+ *
+ * 配合 {@link QwenApiStubController} 使用，可在不消耗DashScope额度的情况下压测完整检测链路。
+ *
+ * 用法：
+ * java -cp app.jar com.example.ffmpeg.test.DetectionLoadTest \
+ *   --url http://localhost:8080 --mode image --image uploads/image/a.jpg \
+ *   --api-key sk-xxx --concurrency 16 --requests 200
+ *
+ * mode 可选 image / video / both
+ */
+public class DetectionLoadTest {
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseArgs(args);
+
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        String mode = options.getOrDefault("mode", "image");
+        String apiKey = options.getOrDefault("api-key", "stub-key");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "8"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "100"));
+
+        WebClient webClient = WebClient.builder()
+                .baseUrl(url)
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(50 * 1024 * 1024))
+                .build();
+
+        if ("image".equals(mode) || "both".equals(mode)) {
+            String imagePath = require(options, "image");
+            run("图片检测", requests, concurrency, i -> {
+                Map<String, Object> body = new HashMap<>();
+                body.put("imagePath", imagePath);
+                body.put("outputPath", String.format("outputs/loadtest/image_%d.png", i));
+                return webClient.post()
+                        .uri("/api/drone/image/detect")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                        .bodyValue(body);
+            });
+        }
+
+        if ("video".equals(mode) || "both".equals(mode)) {
+            String videoPath = require(options, "video");
+            run("视频跟踪", requests, concurrency, i -> {
+                Map<String, Object> body = new HashMap<>();
+                body.put("videoSource", videoPath);
+                body.put("apiKey", apiKey);
+                body.put("outputPath", String.format("video/output/loadtest_%d.mp4", i));
+                return webClient.post()
+                        .uri("/api/drone/video/track")
+                        .bodyValue(body);
+            });
+        }
+    }
+
+    /**
+     * 以固定并发执行请求并输出吞吐量与延迟分位数
+     */
+    private static void run(String name, int requests, int concurrency,
+                            IntFunction<WebClient.RequestHeadersSpec<?>> requestFactory) {
+        System.out.printf("开始压测 [%s]: 请求数=%d, 并发=%d%n", name, requests, concurrency);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger successCount = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        long start = System.nanoTime();
+
+        Flux.range(0, requests)
+                .flatMap(i -> {
+                    long begin = System.nanoTime();
+                    return requestFactory.apply(i)
+                            .exchangeToMono(response -> response.bodyToMono(String.class)
+                                    .defaultIfEmpty("")
+                                    .map(body -> response.statusCode().is2xxSuccessful()
+                                            && body.contains("\"success\":true")))
+                            .onErrorResume(ex -> Mono.just(false))
+                            .doOnNext(ok -> {
+                                latencies.add(System.nanoTime() - begin);
+                                if (ok) {
+                                    successCount.incrementAndGet();
+                                } else {
+                                    failureCount.incrementAndGet();
+                                }
+                            });
+                }, concurrency)
+                .blockLast();
+
+        double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+
+        System.out.printf("[%s] 完成: 成功=%d, 失败=%d, 耗时=%.2fs, 吞吐量=%.2f req/s%n",
+                name, successCount.get(), failureCount.get(), elapsedSeconds, requests / elapsedSeconds);
+        System.out.printf("[%s] 延迟(ms): p50=%.1f, p90=%.1f, p95=%.1f, p99=%.1f, max=%.1f%n",
+                name, percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.95),
+                percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    private static double percentile(List<Long> sortedNanos, double quantile) {
+        if (sortedNanos.isEmpty()) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(quantile * sortedNanos.size()) - 1;
+        index = Math.max(0, Math.min(index, sortedNanos.size() - 1));
+        return sortedNanos.get(index) / 1_000_000.0;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].startsWith("--")) {
+                options.put(args[i].substring(2), args[++i]);
+            }
+        }
+        return options;
+    }
+
+    private static String require(Map<String, String> options, String key) {
+        String value = options.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("缺少参数 --" + key);
+        }
+        return value;
+    }
+}
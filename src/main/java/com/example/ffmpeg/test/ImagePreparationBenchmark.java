@@ -0,0 +1,70 @@
+package com.example.ffmpeg.test;
+
+import com.example.ffmpeg.util.DetectionImageEncoder;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * 检测输入准备基准：Java2D(getScaledInstance + ImageIO) 对比 OpenCV(resize INTER_AREA + imencode)
+ *
+ * 用法：
+ * java -cp app.jar com.example.ffmpeg.test.ImagePreparationBenchmark <图片路径> [maxSize=1024] [迭代次数=50] [JPEG质量=90]
+ */
+public class ImagePreparationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("请提供图片文件路径");
+            return;
+        }
+
+        String imagePath = args[0];
+        int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int quality = args.length > 3 ? Integer.parseInt(args[3]) : DetectionImageEncoder.DEFAULT_JPEG_QUALITY;
+
+        BufferedImage bufferedImage = ImageIO.read(new File(imagePath));
+        Mat mat = opencv_imgcodecs.imread(imagePath, opencv_imgcodecs.IMREAD_COLOR);
+        if (bufferedImage == null || mat.empty()) {
+            System.err.println("无法读取图片: " + imagePath);
+            return;
+        }
+
+        System.out.printf("图片: %s (%dx%d), maxSize=%d, 迭代=%d%n",
+                imagePath, mat.cols(), mat.rows(), maxSize, iterations);
+
+        int warmup = Math.max(5, iterations / 5);
+
+        // Java2D路径
+        for (int i = 0; i < warmup; i++) {
+            DetectionImageEncoder.encodeBufferedImage(bufferedImage, maxSize);
+        }
+        long start = System.nanoTime();
+        int java2dBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            java2dBytes = DetectionImageEncoder.encodeBufferedImage(bufferedImage, maxSize).length();
+        }
+        double java2dMs = (System.nanoTime() - start) / 1_000_000.0 / iterations;
+
+        // OpenCV路径
+        for (int i = 0; i < warmup; i++) {
+            DetectionImageEncoder.encodeMat(mat, maxSize, quality);
+        }
+        start = System.nanoTime();
+        int opencvBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            opencvBytes = DetectionImageEncoder.encodeMat(mat, maxSize, quality).length();
+        }
+        double opencvMs = (System.nanoTime() - start) / 1_000_000.0 / iterations;
+
+        mat.release();
+
+        System.out.printf("Java2D : 平均 %.2f ms/op, 输出 %d 字节%n", java2dMs, java2dBytes);
+        System.out.printf("OpenCV : 平均 %.2f ms/op, 输出 %d 字节 (质量 %d)%n", opencvMs, opencvBytes, quality);
+        System.out.printf("加速比 : %.2fx%n", java2dMs / opencvMs);
+    }
+}
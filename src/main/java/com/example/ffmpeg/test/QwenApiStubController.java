@@ -0,0 +1,140 @@
+package com.example.ffmpeg.test;
+
+import com.example.ffmpeg.config.QwenApiConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DashScope多模态接口的本地替身，用于压测视频/图片检测链路而不消耗API额度。
+ *
+ * 启用方式：
+ * drone.inspection.api.qwen.stub.enabled=true
+ * drone.inspection.api.qwen.base-url=http://localhost:8080/stub/dashscope/api/v1/services/aigc/multimodal-generation/generation
+ */
+@Slf4j
+@RestController
+@RequestMapping("/stub/dashscope")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "drone.inspection.api.qwen.stub", name = "enabled", havingValue = "true")
+public class QwenApiStubController {
+
+    private static final String IMAGE_MARKER = "data:image/jpeg;base64,";
+
+    private final QwenApiConfig qwenApiConfig;
+    private final ObjectMapper objectMapper;
+
+    private final AtomicLong requestCounter = new AtomicLong();
+
+    @PostMapping("/api/v1/services/aigc/multimodal-generation/generation")
+    public Mono<ResponseEntity<Map<String, Object>>> generation(@RequestBody String body) {
+        QwenApiConfig.Stub stub = qwenApiConfig.getStub();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long jitter = stub.getJitterMs() > 0 ? random.nextLong(stub.getJitterMs() + 1) : 0;
+        long delay = stub.getLatencyMs() + jitter;
+        long requestNo = requestCounter.incrementAndGet();
+        boolean fail = random.nextDouble() < stub.getErrorRate();
+        boolean throttled = random.nextBoolean();
+
+        int imageCount = countImages(body);
+        log.debug("替身接口收到第{}个请求, 图像{}张, 请求体{}字节, 延迟{}ms, 失败={}",
+                requestNo, imageCount, body.length(), delay, fail);
+
+        return Mono.delay(Duration.ofMillis(delay))
+                .map(tick -> fail ? buildErrorResponse(throttled) : buildSuccessResponse(stub, imageCount));
+    }
+
+    private int countImages(String body) {
+        int count = 0;
+        int index = body.indexOf(IMAGE_MARKER);
+        while (index >= 0) {
+            count++;
+            index = body.indexOf(IMAGE_MARKER, index + IMAGE_MARKER.length());
+        }
+        return count;
+    }
+
+    /**
+     * 构建与DashScope一致的成功响应结构
+     */
+    private ResponseEntity<Map<String, Object>> buildSuccessResponse(QwenApiConfig.Stub stub, int imageCount) {
+        List<Map<String, Object>> persons = new ArrayList<>();
+        for (int i = 0; i < stub.getPersonCount(); i++) {
+            int x1 = 60 + (i % 8) * 120;
+            int y1 = 80 + (i / 8) * 160 + (i % 3) * 30;
+            Map<String, Object> person = new HashMap<>();
+            person.put("id", i + 1);
+            person.put("bbox", List.of(x1, y1, x1 + 40, y1 + 90));
+            person.put("confidence", stub.getConfidence());
+            person.put("type", "person");
+            persons.add(person);
+        }
+
+        // 多图请求按图像序号分别返回
+        Object result = Map.of("persons", persons);
+        if (imageCount > 1) {
+            List<Map<String, Object>> images = new ArrayList<>();
+            for (int i = 1; i <= imageCount; i++) {
+                images.add(Map.of("index", i, "persons", persons));
+            }
+            result = Map.of("images", images);
+        }
+
+        String text;
+        try {
+            text = "```json\n" + objectMapper.writeValueAsString(result) + "\n```";
+        } catch (Exception e) {
+            text = "{\"persons\": []}";
+        }
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("role", "assistant");
+        message.put("content", List.of(Map.of("text", text)));
+
+        Map<String, Object> choice = new HashMap<>();
+        choice.put("finish_reason", "stop");
+        choice.put("message", message);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("output", Map.of("choices", List.of(choice)));
+        response.put("usage", Map.of("input_tokens", 1200 * Math.max(1, imageCount),
+                "output_tokens", 40 * stub.getPersonCount() * Math.max(1, imageCount)));
+        response.put("request_id", UUID.randomUUID().toString());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 构建错误响应（限流或服务器错误）
+     */
+    private ResponseEntity<Map<String, Object>> buildErrorResponse(boolean throttled) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("request_id", UUID.randomUUID().toString());
+        if (throttled) {
+            error.put("code", "Throttling.RateQuota");
+            error.put("message", "Requests rate limit exceeded, please try again later.");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(error);
+        }
+        error.put("code", "InternalError");
+        error.put("message", "An internal error has occured, please try again later.");
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.ffmpeg.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 根据近期检测框尺寸自适应选择检测输入分辨率
+ *
+ * 目标较大时降低输入尺寸减少载荷；目标很小时提高输入尺寸，超出单图上限时切分为重叠瓦片。
+ * 单次请求的预估JPEG字节数不超过字节预算。
+ *
+ * 尺寸只能从检测到的目标推断：输入缩小后小目标可能不再被检出，历史中只剩大目标，尺寸无法回升。
+ * 因此检测到的目标很少时历史向默认尺寸衰减，并且定期按默认尺寸探测一次。
+ */
+public class AdaptiveResolutionPolicy {
+
+    /** 输入长边下限 */
+    private static final int MIN_SIZE = 512;
+    /** 单图输入长边上限（模型对更大的图像会在内部降采样），超过则切瓦片 */
+    private static final int MAX_SIZE = 1344;
+    /** 最多切分为 N x N 瓦片 */
+    private static final int MAX_TILES_PER_SIDE = 3;
+    /** 期望小目标在模型输入中的最小边长（像素） */
+    private static final double TARGET_MIN_BOX = 32.0;
+    /** 取近期目标尺寸的该分位数作为"小目标"尺寸 */
+    private static final double SMALL_BOX_QUANTILE = 0.25;
+    /** 记录的近期检测框数量 */
+    private static final int HISTORY_SIZE = 50;
+    /** 瓦片之间的重叠比例，避免目标被切断 */
+    private static final double TILE_OVERLAP = 0.1;
+    /** 航拍画面质量90时JPEG的平均字节/像素估计 */
+    private static final double BYTES_PER_PIXEL = 0.3;
+    /** 一次检测的目标数少于该值时，丢弃部分最早的历史记录 */
+    private static final int FEW_DETECTIONS = 2;
+    /** 每次衰减丢弃的历史记录数 */
+    private static final int DECAY_STEP = 10;
+    /** 每隔多少次检测按默认尺寸探测一次 */
+    private static final int PROBE_INTERVAL = 10;
+
+    private final int defaultSize;
+    private final long byteBudget;
+    private final int maxImagesPerRequest;
+    private final Deque<Double> boxSizes = new ArrayDeque<>();
+    private int planCount;
+
+    /**
+     * @param defaultSize         尚无检测历史时使用的输入尺寸
+     * @param byteBudget          单次请求预估字节上限，0表示不限制
+     * @param maxImagesPerRequest 单次请求最多携带的图像数（瓦片按此合并请求）
+     */
+    public AdaptiveResolutionPolicy(int defaultSize, long byteBudget, int maxImagesPerRequest) {
+        this.defaultSize = defaultSize;
+        this.byteBudget = byteBudget;
+        this.maxImagesPerRequest = Math.max(1, maxImagesPerRequest);
+    }
+
+    /**
+     * 检测输入方案：每张图的长边上限和瓦片切分数
+     */
+    public static class Plan {
+        public final int maxImageSize;
+        public final int tilesPerSide;
+
+        Plan(int maxImageSize, int tilesPerSide) {
+            this.maxImageSize = maxImageSize;
+            this.tilesPerSide = tilesPerSide;
+        }
+
+        public boolean isTiled() {
+            return tilesPerSide > 1;
+        }
+    }
+
+    /**
+     * 记录一次检测的全部检测框（整帧坐标，已去重）；目标很少时历史向默认尺寸衰减
+     */
+    public void observeDetections(List<double[]> bboxes) {
+        if (bboxes.size() < FEW_DETECTIONS) {
+            for (int i = 0; i < DECAY_STEP && !boxSizes.isEmpty(); i++) {
+                boxSizes.removeFirst();
+            }
+        }
+        bboxes.forEach(this::observe);
+    }
+
+    /**
+     * 记录一个检测框（整帧坐标）
+     */
+    public void observe(double[] bbox) {
+        if (bbox == null || bbox.length < 4) {
+            return;
+        }
+        double width = bbox[2] - bbox[0];
+        double height = bbox[3] - bbox[1];
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        boxSizes.addLast(Math.sqrt(width * height));
+        if (boxSizes.size() > HISTORY_SIZE) {
+            boxSizes.removeFirst();
+        }
+    }
+
+    /**
+     * 为指定尺寸的帧选择检测输入方案
+     */
+    public Plan plan(int frameWidth, int frameHeight) {
+        int longSide = Math.max(frameWidth, frameHeight);
+        Plan defaultPlan = new Plan(fitBudget(Math.min(defaultSize, longSide), longSide, 1), 1);
+        if (boxSizes.isEmpty()) {
+            return defaultPlan;
+        }
+
+        Plan adaptive = adaptivePlan(longSide);
+        // 定期探测：自适应尺寸低于默认尺寸时，按默认尺寸检测一次，让缩小后漏检的小目标重新进入历史
+        planCount++;
+        if (planCount % PROBE_INTERVAL == 0 && !adaptive.isTiled()
+                && adaptive.maxImageSize < defaultPlan.maxImageSize) {
+            return defaultPlan;
+        }
+        return adaptive;
+    }
+
+    private Plan adaptivePlan(int longSide) {
+        double smallBox = smallBoxSize();
+        // 使小目标在输入中约为TARGET_MIN_BOX像素所需的长边（编码只缩小不放大，上限为源图长边）
+        int required = (int) Math.ceil(longSide * TARGET_MIN_BOX / smallBox);
+        required = Math.max(MIN_SIZE, Math.min(required, longSide));
+
+        if (required <= MAX_SIZE) {
+            return new Plan(fitBudget(Math.min(required, longSide), longSide, 1), 1);
+        }
+
+        // 单图上限不足以保留小目标：切为重叠瓦片，每块按原分辨率（不超过单图上限）送检
+        int tiles = Math.max(2, Math.min(MAX_TILES_PER_SIDE, (int) Math.ceil((double) required / MAX_SIZE)));
+        int tileLongSide = (int) Math.ceil(longSide / (double) tiles * (1 + TILE_OVERLAP));
+        int tileSize = Math.min(MAX_SIZE, tileLongSide);
+        return new Plan(fitBudget(tileSize, tileLongSide, tiles * tiles), tiles);
+    }
+
+    /**
+     * 按瓦片方案计算各瓦片区域（整帧坐标，含重叠），返回 [x, y, width, height]
+     */
+    public static int[][] tileRegions(int frameWidth, int frameHeight, int tilesPerSide) {
+        int[][] regions = new int[tilesPerSide * tilesPerSide][];
+        int tileWidth = (int) Math.ceil(frameWidth / (double) tilesPerSide);
+        int tileHeight = (int) Math.ceil(frameHeight / (double) tilesPerSide);
+        int overlapX = (int) (tileWidth * TILE_OVERLAP / 2);
+        int overlapY = (int) (tileHeight * TILE_OVERLAP / 2);
+
+        int index = 0;
+        for (int row = 0; row < tilesPerSide; row++) {
+            for (int col = 0; col < tilesPerSide; col++) {
+                int x1 = Math.max(0, col * tileWidth - overlapX);
+                int y1 = Math.max(0, row * tileHeight - overlapY);
+                int x2 = Math.min(frameWidth, (col + 1) * tileWidth + overlapX);
+                int y2 = Math.min(frameHeight, (row + 1) * tileHeight + overlapY);
+                regions[index++] = new int[]{x1, y1, x2 - x1, y2 - y1};
+            }
+        }
+        return regions;
+    }
+
+    private double smallBoxSize() {
+        double[] sizes = boxSizes.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sizes);
+        int index = (int) Math.floor(SMALL_BOX_QUANTILE * (sizes.length - 1));
+        return Math.max(1.0, sizes[index]);
+    }
+
+    /**
+     * 按字节预算收缩输入尺寸
+     *
+     * @param size       期望的长边
+     * @param sourceLong 源图（或瓦片）长边，收缩后不低于min(MIN_SIZE, sourceLong)
+     * @param imageCount 本方案的图像总数，按每次请求的图像数计入预算
+     */
+    private int fitBudget(int size, int sourceLong, int imageCount) {
+        if (byteBudget <= 0) {
+            return size;
+        }
+        int imagesPerRequest = Math.min(imageCount, maxImagesPerRequest);
+        // 航拍画面按16:9估算短边
+        double pixels = (double) size * size * 9 / 16;
+        double estimated = pixels * BYTES_PER_PIXEL * imagesPerRequest;
+        if (estimated <= byteBudget) {
+            return size;
+        }
+        int fitted = (int) (size * Math.sqrt(byteBudget / estimated));
+        return Math.max(Math.min(MIN_SIZE, sourceLong), fitted);
+    }
+}
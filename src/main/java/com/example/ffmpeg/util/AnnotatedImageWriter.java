@@ -0,0 +1,115 @@
+package com.example.ffmpeg.util;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 标注图片写出工具：支持JPEG/WebP/PNG、质量和缩小输出，使用OpenCV编码
+ */
+public class AnnotatedImageWriter {
+
+    /**
+     * 规范化输出格式名，无法识别时返回null
+     */
+    public static String normalizeFormat(String format) {
+        if (format == null) {
+            return null;
+        }
+        return switch (format.toLowerCase(Locale.ROOT)) {
+            case "jpg", "jpeg" -> "jpg";
+            case "webp" -> "webp";
+            case "png" -> "png";
+            default -> null;
+        };
+    }
+
+    /**
+     * 从文件路径扩展名推断输出格式
+     */
+    public static String formatOf(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 ? normalizeFormat(path.substring(dot + 1)) : null;
+    }
+
+    /**
+     * 写出标注图片
+     *
+     * @param format  jpg / webp / png
+     * @param quality JPEG/WebP质量 (1-100)
+     * @param maxSize 输出长边上限，0表示不缩小
+     */
+    public static void write(BufferedImage image, String outputPath, String format,
+                             int quality, int maxSize) throws IOException {
+        BufferedImage bgr = toBgr(image);
+        byte[] pixels = ((DataBufferByte) bgr.getRaster().getDataBuffer()).getData();
+
+        try (BytePointer data = new BytePointer(pixels);
+             Mat mat = new Mat(bgr.getHeight(), bgr.getWidth(), opencv_core.CV_8UC3, data)) {
+
+            Mat output = mat;
+            double scale = maxSize > 0 ? DetectionImageEncoder.computeScale(mat.cols(), mat.rows(), maxSize) : 1.0;
+            if (scale < 1.0) {
+                output = new Mat();
+                opencv_imgproc.resize(mat, output, new Size((int) (mat.cols() * scale), (int) (mat.rows() * scale)),
+                        0, 0, opencv_imgproc.INTER_AREA);
+            }
+
+            try {
+                write(output, outputPath, format, quality);
+            } finally {
+                if (output != mat) {
+                    output.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 直接写出BGR格式的Mat，不做缩放
+     *
+     * @param format  jpg / webp / png
+     * @param quality JPEG/WebP质量 (1-100)
+     */
+    public static void write(Mat image, String outputPath, String format, int quality) throws IOException {
+        try (IntPointer params = encodeParams(format, quality)) {
+            if (!opencv_imgcodecs.imwrite(outputPath, image, params)) {
+                throw new IOException("图片编码失败: " + outputPath);
+            }
+        }
+    }
+
+    private static IntPointer encodeParams(String format, int quality) {
+        int clamped = Math.max(1, Math.min(100, quality));
+        return switch (format) {
+            case "webp" -> new IntPointer(opencv_imgcodecs.IMWRITE_WEBP_QUALITY, clamped);
+            // PNG无损，使用较低压缩级别换取速度
+            case "png" -> new IntPointer(opencv_imgcodecs.IMWRITE_PNG_COMPRESSION, 3);
+            default -> new IntPointer(opencv_imgcodecs.IMWRITE_JPEG_QUALITY, clamped);
+        };
+    }
+
+    /**
+     * 转为TYPE_3BYTE_BGR，像素布局与OpenCV一致
+     */
+    private static BufferedImage toBgr(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage bgr = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g2d = bgr.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return bgr;
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 检测上游多端点路由
+ *
+ * 每个端点由地址+API Key组成，按加权最少在途请求(least-outstanding)或EWMA延迟选择端点；
+ * 连续失败达到阈值的端点被摘除一段时间，到期后自动恢复。
+ */
+@Slf4j
+public class DetectionEndpointRouter {
+
+    public static final String LEAST_OUTSTANDING = "least-outstanding";
+    public static final String EWMA = "ewma";
+
+    private final List<Target> targets;
+    private final boolean useEwma;
+    private final double ewmaAlpha;
+    private final int ejectAfterFailures;
+    private final long ejectDurationMs;
+
+    public DetectionEndpointRouter(List<Target> targets, String routing, double ewmaAlpha,
+                                   int ejectAfterFailures, long ejectDurationMs) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("检测端点列表不能为空");
+        }
+        this.targets = List.copyOf(targets);
+        this.useEwma = EWMA.equalsIgnoreCase(routing);
+        this.ewmaAlpha = ewmaAlpha;
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.ejectDurationMs = ejectDurationMs;
+    }
+
+    /**
+     * 检测端点：地址、API Key（为空时使用请求自带的Key）和权重
+     */
+    public static class Target {
+        private final String name;
+        private final URI uri;
+        private final String apiKey;
+        private final double weight;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong successCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private volatile double ewmaMs = -1;
+        private volatile long ejectedUntil;
+
+        public Target(String name, String baseUrl, String apiKey, double weight) {
+            this.name = name;
+            this.uri = URI.create(baseUrl);
+            this.apiKey = apiKey;
+            this.weight = weight > 0 ? weight : 1.0;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public String resolveApiKey(String requestApiKey) {
+            return apiKey != null && !apiKey.isBlank() ? apiKey : requestApiKey;
+        }
+
+        boolean isEjected(long now) {
+            return ejectedUntil > now;
+        }
+    }
+
+    /**
+     * 选择端点并执行调用，根据结果更新端点状态
+     */
+    public <T> Mono<T> execute(Function<Target, Mono<T>> call) {
+        return Mono.defer(() -> {
+            Target target = select();
+            target.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            return call.apply(target)
+                    .doOnNext(result -> onSuccess(target, elapsedMs(start)))
+                    .doOnError(ex -> onError(target, ex))
+                    .doFinally(signal -> {
+                        target.outstanding.decrementAndGet();
+                        if (signal == SignalType.CANCEL) {
+                            // 被对冲或超时取消：用已耗时惩罚慢端点
+                            penalize(target, elapsedMs(start));
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 各端点状态快照
+     */
+    public Map<String, Object> snapshot() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Target target : targets) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("uri", target.uri.toString());
+            stats.put("weight", target.weight);
+            stats.put("outstanding", target.outstanding.get());
+            stats.put("ewmaMs", target.ewmaMs < 0 ? null : Math.round(target.ewmaMs));
+            stats.put("success", target.successCount.get());
+            stats.put("failure", target.failureCount.get());
+            stats.put("ejected", target.isEjected(now));
+            result.put(target.name, stats);
+        }
+        return result;
+    }
+
+    private Target select() {
+        if (targets.size() == 1) {
+            return targets.get(0);
+        }
+
+        long now = System.currentTimeMillis();
+        List<Target> best = new ArrayList<>();
+        double bestScore = Double.MAX_VALUE;
+        for (Target target : targets) {
+            if (target.isEjected(now)) {
+                continue;
+            }
+            double score = score(target);
+            if (score < bestScore) {
+                bestScore = score;
+                best.clear();
+                best.add(target);
+            } else if (score == bestScore) {
+                best.add(target);
+            }
+        }
+
+        if (best.isEmpty()) {
+            // 全部被摘除时选择最早恢复的端点，避免完全不可用
+            Target earliest = targets.get(0);
+            for (Target target : targets) {
+                if (target.ejectedUntil < earliest.ejectedUntil) {
+                    earliest = target;
+                }
+            }
+            return earliest;
+        }
+        return best.get(ThreadLocalRandom.current().nextInt(best.size()));
+    }
+
+    private double score(Target target) {
+        double load = (target.outstanding.get() + 1) / target.weight;
+        if (!useEwma) {
+            return load;
+        }
+        // 尚无样本的端点优先探测
+        return target.ewmaMs < 0 ? 0 : target.ewmaMs * load;
+    }
+
+    private void onSuccess(Target target, long latencyMs) {
+        target.successCount.incrementAndGet();
+        target.consecutiveFailures.set(0);
+        updateEwma(target, latencyMs);
+    }
+
+    private void onError(Target target, Throwable ex) {
+        if (!isEndpointFailure(ex)) {
+            return;
+        }
+        target.failureCount.incrementAndGet();
+        int failures = target.consecutiveFailures.incrementAndGet();
+        if (failures >= ejectAfterFailures && !target.isEjected(System.currentTimeMillis())) {
+            target.ejectedUntil = System.currentTimeMillis() + ejectDurationMs;
+            target.consecutiveFailures.set(0);
+            log.warn("检测端点 {} 连续失败{}次，摘除{}ms: {}", target.name, failures, ejectDurationMs, ex.getMessage());
+        }
+    }
+
+    /**
+     * 限流、鉴权失败、服务端错误和网络错误计入端点健康；其余4xx视为请求本身的问题
+     */
+    private boolean isEndpointFailure(Throwable ex) {
+        if (ex instanceof WebClientResponseException responseException) {
+            int status = responseException.getRawStatusCode();
+            return status == 401 || status == 403 || status == 429 || status >= 500;
+        }
+        return true;
+    }
+
+    private void penalize(Target target, long elapsedMs) {
+        if (target.ewmaMs < 0 || elapsedMs > target.ewmaMs) {
+            updateEwma(target, elapsedMs);
+        }
+    }
+
+    private synchronized void updateEwma(Target target, long latencyMs) {
+        target.ewmaMs = target.ewmaMs < 0 ? latencyMs : ewmaAlpha * latencyMs + (1 - ewmaAlpha) * target.ewmaMs;
+    }
+
+    private long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
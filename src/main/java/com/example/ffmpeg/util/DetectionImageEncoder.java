@@ -0,0 +1,457 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * 检测模型输入图像准备工具：缩放到maxSize以内并编码为JPEG
+ */
+@Slf4j
+public class DetectionImageEncoder {
+
+    public static final int DEFAULT_JPEG_QUALITY = 90;
+
+    /** 超过该像素数的图像按降采样解码，堆内不保留全分辨率栅格 */
+    public static final long DEFAULT_LARGE_IMAGE_PIXELS = 40_000_000L;
+    /** 超大图像降采样解码后的长边上限（同时作为标注底图） */
+    public static final int DEFAULT_LARGE_IMAGE_CANVAS = 4096;
+    /** ImageIO分带解码时每条带的源图像素上限 */
+    private static final long BAND_SOURCE_PIXELS = 16_000_000L;
+
+    /**
+     * 编码结果：JPEG数据和相对原图的缩放因子
+     * jpeg可能是堆内数组包装，也可能是直通文件的内存映射
+     */
+    public static class EncodedImage {
+        public final ByteBuffer jpeg;
+        public final double scaleFactor;
+        public final int width;
+        public final int height;
+
+        public EncodedImage(byte[] jpeg, double scaleFactor, int width, int height) {
+            this(ByteBuffer.wrap(jpeg), scaleFactor, width, height);
+        }
+
+        public EncodedImage(ByteBuffer jpeg, double scaleFactor, int width, int height) {
+            this.jpeg = jpeg;
+            this.scaleFactor = scaleFactor;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int length() {
+            return jpeg.remaining();
+        }
+    }
+
+    /**
+     * 仅解析文件头得到的图像信息
+     */
+    public static class ImageHeader {
+        public final String format;
+        public final int width;
+        public final int height;
+
+        public ImageHeader(String format, int width, int height) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        public boolean isJpeg() {
+            return "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+        }
+    }
+
+    /**
+     * 一次解码的结果：标注底图和送检JPEG
+     *
+     * 超大图像的底图为降采样画布，imageScale为底图相对原图的比例（检测框为原图坐标）
+     */
+    public static class PreparedImage {
+        public final BufferedImage image;
+        public final EncodedImage encoded;
+        public final double imageScale;
+
+        public PreparedImage(BufferedImage image, EncodedImage encoded) {
+            this(image, encoded, 1.0);
+        }
+
+        public PreparedImage(BufferedImage image, EncodedImage encoded, double imageScale) {
+            this.image = image;
+            this.encoded = encoded;
+            this.imageScale = imageScale;
+        }
+    }
+
+    /**
+     * 计算缩放比例，长边不超过maxSize
+     */
+    public static double computeScale(int width, int height, int maxSize) {
+        if (width > maxSize || height > maxSize) {
+            return Math.min((double) maxSize / width, (double) maxSize / height);
+        }
+        return 1.0;
+    }
+
+    /**
+     * 只读取文件头获取格式与尺寸，不解码像素
+     *
+     * @return 无法识别时返回null
+     */
+    public static ImageHeader readHeader(Path imagePath) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(imagePath.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new ImageHeader(reader.getFormatName(), reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            log.debug("读取图像文件头失败: {} - {}", imagePath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 是否需要降采样解码：像素数超过阈值且长边超过画布上限
+     */
+    public static boolean needsReducedDecode(ImageHeader header, long largeImagePixels, int canvasMaxSize) {
+        return header != null && largeImagePixels > 0
+                && (long) header.width * header.height > largeImagePixels
+                && Math.max(header.width, header.height) > canvasMaxSize;
+    }
+
+    /**
+     * 读取图像文件并编码
+     *
+     * 已是JPEG且尺寸不超过maxSize时直接内存映射原文件，跳过解码与重新编码；
+     * 超大图像降采样解码到不小于maxSize的尺寸后再编码；
+     * 否则优先使用OpenCV解码，失败时回退到ImageIO
+     */
+    public static EncodedImage encodeFile(String imagePath, int maxSize, int jpegQuality) throws IOException {
+        return encodeFile(imagePath, maxSize, jpegQuality, DEFAULT_LARGE_IMAGE_PIXELS);
+    }
+
+    /**
+     * 同encodeFile，像素数超过largeImagePixels的图像按降采样解码
+     */
+    public static EncodedImage encodeFile(String imagePath, int maxSize, int jpegQuality,
+                                          long largeImagePixels) throws IOException {
+        Path path = Paths.get(imagePath);
+        ImageHeader header = readHeader(path);
+        if (header != null && header.isJpeg() && header.width <= maxSize && header.height <= maxSize) {
+            log.debug("JPEG直通: {} ({}x{})", imagePath, header.width, header.height);
+            return new EncodedImage(mapFile(path), 1.0, header.width, header.height);
+        }
+        if (needsReducedDecode(header, largeImagePixels, maxSize)) {
+            BufferedImage reduced = decodeReduced(path, header, maxSize);
+            return encodeReduced(reduced, (double) reduced.getWidth() / header.width, maxSize, jpegQuality);
+        }
+
+        // 忽略EXIF方向，保证坐标与ImageIO读取的标注底图一致
+        Mat image = opencv_imgcodecs.imread(imagePath,
+                opencv_imgcodecs.IMREAD_COLOR | opencv_imgcodecs.IMREAD_IGNORE_ORIENTATION);
+        try {
+            if (image != null && !image.empty()) {
+                return encodeMat(image, maxSize, jpegQuality);
+            }
+        } finally {
+            if (image != null) {
+                image.release();
+            }
+        }
+
+        log.debug("OpenCV无法解码图像，回退到ImageIO: {}", imagePath);
+        BufferedImage bufferedImage = ImageIO.read(new File(imagePath));
+        if (bufferedImage == null) {
+            throw new IOException("无法读取图像文件: " + imagePath);
+        }
+        return encodeBufferedImage(bufferedImage, maxSize, jpegQuality);
+    }
+
+    /**
+     * 读取并解码图像文件一次，同时得到标注用的原图和送检JPEG
+     *
+     * JPEG直通条件与encodeFile一致，此时送检数据为原文件映射，解码结果只用于标注
+     */
+    public static PreparedImage prepareFile(String imagePath, int maxSize, int jpegQuality) throws IOException {
+        return prepareFile(imagePath, maxSize, jpegQuality, DEFAULT_LARGE_IMAGE_PIXELS, DEFAULT_LARGE_IMAGE_CANVAS);
+    }
+
+    /**
+     * 同prepareFile，超大图像（像素数超过largeImagePixels）只降采样解码到长边canvasMaxSize，
+     * 该画布既作为标注底图，也从它缩放得到送检JPEG，峰值内存与原图尺寸无关
+     */
+    public static PreparedImage prepareFile(String imagePath, int maxSize, int jpegQuality,
+                                            long largeImagePixels, int canvasMaxSize) throws IOException {
+        Path path = Paths.get(imagePath);
+        ImageHeader header = readHeader(path);
+        int canvasSize = Math.max(canvasMaxSize, maxSize);
+        if (needsReducedDecode(header, largeImagePixels, canvasSize)) {
+            BufferedImage canvas = decodeReduced(path, header, canvasSize);
+            double canvasScale = (double) canvas.getWidth() / header.width;
+            log.info("超大图像降采样解码: {} ({}x{} -> {}x{})", imagePath, header.width, header.height,
+                    canvas.getWidth(), canvas.getHeight());
+            return new PreparedImage(canvas, encodeReduced(canvas, canvasScale, maxSize, jpegQuality), canvasScale);
+        }
+
+        boolean passThrough = header != null && header.isJpeg()
+                && header.width <= maxSize && header.height <= maxSize;
+
+        Mat image = opencv_imgcodecs.imread(imagePath,
+                opencv_imgcodecs.IMREAD_COLOR | opencv_imgcodecs.IMREAD_IGNORE_ORIENTATION);
+        try {
+            if (image != null && !image.empty()) {
+                EncodedImage encoded = passThrough ?
+                        new EncodedImage(mapFile(path), 1.0, image.cols(), image.rows()) :
+                        encodeMat(image, maxSize, jpegQuality);
+                return new PreparedImage(toBufferedImage(image), encoded);
+            }
+        } finally {
+            if (image != null) {
+                image.release();
+            }
+        }
+
+        log.debug("OpenCV无法解码图像，回退到ImageIO: {}", imagePath);
+        BufferedImage bufferedImage = ImageIO.read(new File(imagePath));
+        if (bufferedImage == null) {
+            throw new IOException("无法读取图像文件: " + imagePath);
+        }
+        EncodedImage encoded = passThrough ?
+                new EncodedImage(mapFile(path), 1.0, bufferedImage.getWidth(), bufferedImage.getHeight()) :
+                encodeBufferedImage(bufferedImage, maxSize, jpegQuality);
+        return new PreparedImage(bufferedImage, encoded);
+    }
+
+    /**
+     * 以降采样方式解码超大图像，长边不超过canvasMaxSize，返回TYPE_3BYTE_BGR图像
+     *
+     * JPEG使用OpenCV IMREAD_REDUCED_*，libjpeg在DCT阶段按1/2、1/4、1/8缩小，不生成全分辨率像素；
+     * 其他格式（TIFF正射影像等）用ImageIO按水平条带设置源区域和子采样读取，每次只解码一条带
+     */
+    public static BufferedImage decodeReduced(Path path, ImageHeader header, int canvasMaxSize) throws IOException {
+        int factor = (int) Math.ceil(Math.max(header.width, header.height) / (double) canvasMaxSize);
+        if (header.isJpeg() && factor >= 2) {
+            int flag = factor >= 8 ? opencv_imgcodecs.IMREAD_REDUCED_COLOR_8 :
+                    factor >= 4 ? opencv_imgcodecs.IMREAD_REDUCED_COLOR_4 : opencv_imgcodecs.IMREAD_REDUCED_COLOR_2;
+            Mat reduced = opencv_imgcodecs.imread(path.toString(), flag | opencv_imgcodecs.IMREAD_IGNORE_ORIENTATION);
+            try {
+                if (reduced != null && !reduced.empty()) {
+                    double scale = computeScale(reduced.cols(), reduced.rows(), canvasMaxSize);
+                    if (scale >= 1.0) {
+                        return toBufferedImage(reduced);
+                    }
+                    try (Mat resized = new Mat()) {
+                        opencv_imgproc.resize(reduced, resized, new Size((int) (reduced.cols() * scale),
+                                (int) (reduced.rows() * scale)), 0, 0, opencv_imgproc.INTER_AREA);
+                        return toBufferedImage(resized);
+                    }
+                }
+            } finally {
+                if (reduced != null) {
+                    reduced.release();
+                }
+            }
+            log.debug("OpenCV降采样解码失败，回退到ImageIO: {}", path);
+        }
+        return decodeBanded(path, Math.max(1, factor));
+    }
+
+    /**
+     * ImageIO分带子采样解码：条带行数为factor的整数倍，保证子采样网格在条带间对齐
+     */
+    private static BufferedImage decodeBanded(Path path, int factor) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("无法读取图像文件: " + path);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                BufferedImage canvas = new BufferedImage((width + factor - 1) / factor,
+                        (height + factor - 1) / factor, BufferedImage.TYPE_3BYTE_BGR);
+                int bandRows = Math.max(factor, (int) (BAND_SOURCE_PIXELS / width) / factor * factor);
+
+                Graphics2D g2d = canvas.createGraphics();
+                try {
+                    for (int y = 0; y < height; y += bandRows) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, y, width, Math.min(bandRows, height - y)));
+                        param.setSourceSubsampling(factor, factor, 0, 0);
+                        BufferedImage band = reader.read(0, param);
+                        g2d.drawImage(band, 0, y / factor, null);
+                    }
+                } finally {
+                    g2d.dispose();
+                }
+                return canvas;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 从降采样画布编码送检JPEG，缩放因子换算为相对原图
+     */
+    private static EncodedImage encodeReduced(BufferedImage canvas, double canvasScale,
+                                              int maxSize, int jpegQuality) throws IOException {
+        byte[] pixels = ((DataBufferByte) canvas.getRaster().getDataBuffer()).getData();
+        try (BytePointer data = new BytePointer(pixels);
+             Mat mat = new Mat(canvas.getHeight(), canvas.getWidth(), opencv_core.CV_8UC3, data)) {
+            EncodedImage encoded = encodeMat(mat, maxSize, jpegQuality);
+            return new EncodedImage(encoded.jpeg, canvasScale * encoded.scaleFactor, encoded.width, encoded.height);
+        }
+    }
+
+    /**
+     * 将8位BGR Mat按字节拷贝为TYPE_3BYTE_BGR的BufferedImage（两者像素布局一致）
+     */
+    public static BufferedImage toBufferedImage(Mat bgr) {
+        BufferedImage image = new BufferedImage(bgr.cols(), bgr.rows(), BufferedImage.TYPE_3BYTE_BGR);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Mat continuous = bgr.isContinuous() ? bgr : bgr.clone();
+        try {
+            continuous.data().get(pixels);
+        } finally {
+            if (continuous != bgr) {
+                continuous.release();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 只读内存映射文件内容
+     */
+    private static ByteBuffer mapFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 直接从Mat缩放(INTER_AREA)并编码为JPEG，不经过BufferedImage
+     */
+    public static EncodedImage encodeMat(Mat image, int maxSize, int jpegQuality) throws IOException {
+        if (image == null || image.empty()) {
+            throw new IOException("帧图像为空");
+        }
+
+        int originalWidth = image.cols();
+        int originalHeight = image.rows();
+        double scale = computeScale(originalWidth, originalHeight, maxSize);
+
+        Mat processed = image;
+        if (scale < 1.0) {
+            int newWidth = (int) (originalWidth * scale);
+            int newHeight = (int) (originalHeight * scale);
+            processed = new Mat();
+            opencv_imgproc.resize(image, processed, new Size(newWidth, newHeight), 0, 0, opencv_imgproc.INTER_AREA);
+            log.debug("图像已缩放: {}x{} -> {}x{}", originalWidth, originalHeight, newWidth, newHeight);
+        }
+
+        try (BytePointer buffer = new BytePointer();
+             IntPointer params = new IntPointer(opencv_imgcodecs.IMWRITE_JPEG_QUALITY, jpegQuality)) {
+            if (!opencv_imgcodecs.imencode(".jpg", processed, buffer, params)) {
+                throw new IOException("JPEG编码失败");
+            }
+            byte[] jpeg = new byte[(int) buffer.limit()];
+            buffer.get(jpeg);
+            return new EncodedImage(jpeg, scale, processed.cols(), processed.rows());
+        } finally {
+            if (processed != image) {
+                processed.release();
+            }
+        }
+    }
+
+    /**
+     * 基于Java2D的缩放与ImageIO编码（原实现，保留用于非OpenCV输入与基准对比）
+     */
+    public static EncodedImage encodeBufferedImage(BufferedImage originalImage, int maxSize) throws IOException {
+        return encodeBufferedImage(originalImage, maxSize, DEFAULT_JPEG_QUALITY);
+    }
+
+    /**
+     * 同encodeBufferedImage，按指定质量（1-100）编码JPEG
+     */
+    public static EncodedImage encodeBufferedImage(BufferedImage originalImage, int maxSize,
+                                                   int jpegQuality) throws IOException {
+        if (originalImage == null) {
+            throw new IOException("帧图像为空");
+        }
+
+        int originalWidth = originalImage.getWidth();
+        int originalHeight = originalImage.getHeight();
+
+        // 计算缩放比例
+        double scale = computeScale(originalWidth, originalHeight, maxSize);
+        int newWidth = (int) (originalWidth * scale);
+        int newHeight = (int) (originalHeight * scale);
+
+        // 创建缩放后的图像
+        BufferedImage processedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+        if (scale < 1.0) {
+            processedImage.getGraphics().drawImage(originalImage.getScaledInstance(newWidth, newHeight,
+                    java.awt.Image.SCALE_SMOOTH), 0, 0, null);
+            log.debug("图像已缩放: {}x{} -> {}x{}", originalWidth, originalHeight, newWidth, newHeight);
+        } else {
+            processedImage.getGraphics().drawImage(originalImage, 0, 0, null);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(baos)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(1, Math.min(100, jpegQuality)) / 100f);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(processedImage, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return new EncodedImage(baos.toByteArray(), scale, newWidth, newHeight);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.ffmpeg.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 检测请求体流式写出器
+ *
+ * 直接把JSON外壳写入DataBuffer，并将JPEG字节分块Base64编码进DataBuffer，
+ * 避免 JPEG -> Base64字符串 -> 拼接data URI -> Map -> Jackson序列化 的多次整图拷贝。
+ * 每个在途请求的堆内存占用约为一份JPEG字节。
+ */
+public class DetectionRequestBodyWriter {
+
+    /** 每个分块的原始字节数，必须是3的倍数以保证中间分块不产生填充 */
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final byte[] IMAGE_PREFIX = "{\"image\":\"data:image/jpeg;base64,".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 构建单图检测请求体，结构与 {"model","input":{"messages":[...]},"parameters"} 一致
+     */
+    public static BodyInserter<ByteBuffer, ReactiveHttpOutputMessage> imageRequest(String model, String prompt,
+                                                                                   ByteBuffer jpeg) {
+        return batchImageRequest(model, prompt, List.of(jpeg));
+    }
+
+    /**
+     * 构建多图检测请求体：同一条消息内按顺序放入多张图片，最后附加文本提示
+     */
+    public static BodyInserter<ByteBuffer, ReactiveHttpOutputMessage> batchImageRequest(String model, String prompt,
+                                                                                        List<ByteBuffer> images) {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("图像列表不能为空");
+        }
+
+        byte[] head = ("{\"model\":" + toJson(model) + ",\"input\":{\"messages\":[{\"role\":\"user\",\"content\":[")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] imageSuffix = "\"},".getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("{\"text\":" + toJson(prompt) + "}]}]},\"parameters\":{\"result_format\":\"message\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        return (message, context) -> {
+            DataBufferFactory factory = message.bufferFactory();
+
+            long contentLength = head.length + tail.length;
+            for (ByteBuffer jpeg : images) {
+                contentLength += IMAGE_PREFIX.length + base64Length(jpeg.remaining()) + imageSuffix.length;
+            }
+            message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            message.getHeaders().setContentLength(contentLength);
+
+            Flux<DataBuffer> imageParts = Flux.fromIterable(images)
+                    .concatMap(jpeg -> Flux.concat(
+                            Mono.fromSupplier(() -> factory.wrap(IMAGE_PREFIX)),
+                            base64Chunks(factory, jpeg),
+                            Mono.fromSupplier(() -> factory.wrap(imageSuffix))));
+
+            Flux<DataBuffer> body = Flux.concat(
+                    Mono.fromSupplier(() -> factory.wrap(head)),
+                    imageParts,
+                    Mono.fromSupplier(() -> factory.wrap(tail)));
+            return message.writeWith(body);
+        };
+    }
+
+    /**
+     * 按块将字节Base64编码进新分配的DataBuffer
+     * 非数组支撑的缓冲区（如内存映射文件）逐块读出，不产生整图拷贝
+     */
+    private static Flux<DataBuffer> base64Chunks(DataBufferFactory factory, ByteBuffer data) {
+        int total = data.remaining();
+        int start = data.position();
+        int chunkCount = (total + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return Flux.range(0, chunkCount).map(index -> {
+            int offset = index * CHUNK_SIZE;
+            int length = Math.min(CHUNK_SIZE, total - offset);
+            DataBuffer buffer = factory.allocateBuffer(base64Length(length));
+            try (OutputStream out = Base64.getEncoder().wrap(buffer.asOutputStream())) {
+                if (data.hasArray()) {
+                    out.write(data.array(), data.arrayOffset() + start + offset, length);
+                } else {
+                    byte[] chunk = new byte[length];
+                    data.slice(start + offset, length).get(chunk);
+                    out.write(chunk);
+                }
+            } catch (IOException e) {
+                DataBufferUtils.release(buffer);
+                throw new UncheckedIOException(e);
+            }
+            return buffer;
+        });
+    }
+
+    private static int base64Length(int length) {
+        return 4 * ((length + 2) / 3);
+    }
+
+    private static String toJson(String value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("无法序列化请求字段: " + e.getMessage(), e);
+        }
+    }
+}
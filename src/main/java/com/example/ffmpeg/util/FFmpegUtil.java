@@ -318,6 +318,23 @@ public class FFmpegUtil {
 
     public static void transcodeVideo(String inputPath, String outputPath, String videoCodec, 
                                     String audioCodec, String resolution, String bitrate) {
+        transcodeVideo(inputPath, outputPath, videoCodec, audioCodec, resolution, bitrate,
+                SegmentedOutput.MP4, SegmentedOutput.DEFAULT_SEGMENT_SECONDS);
+    }
+
+    /**
+     * 转码，format为hls/dash时输出分片和播放列表（边转码边更新，可提前开始播放）
+     *
+     * @return 实际输出路径（分片格式为播放列表路径）
+     */
+    public static String transcodeVideo(String inputPath, String outputPath, String videoCodec,
+                                        String audioCodec, String resolution, String bitrate,
+                                        String format, int segmentSeconds) {
+        String outputFormat = SegmentedOutput.normalizeFormat(format);
+        if (SegmentedOutput.isSegmented(outputFormat)) {
+            outputPath = SegmentedOutput.playlistPath(outputPath, outputFormat);
+        }
+
         try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
             grabber.start();
             
@@ -331,7 +348,7 @@ public class FFmpegUtil {
             }
             
             // 创建输出目录
-            File outputFile = new File(outputPath);
+            File outputFile = new File(outputPath).getAbsoluteFile();
             outputFile.getParentFile().mkdirs();
             
             // 配置转码器
@@ -341,37 +358,14 @@ public class FFmpegUtil {
             recorder.setAudioChannels(grabber.getAudioChannels());
             recorder.setSampleRate(grabber.getSampleRate());
             
-            // 设置视频编解码器
-            if (videoCodec != null && !videoCodec.isEmpty()) {
-                if ("h264".equalsIgnoreCase(videoCodec)) {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                } else if ("h265".equalsIgnoreCase(videoCodec)) {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_HEVC);
-                } else {
-                    throw new IllegalArgumentException("不支持的视频编码格式: " + videoCodec);
-                }
-            } else {
-                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-            }
+            configureTranscodeCodecs(recorder, videoCodec, audioCodec, bitrate);
             
-            // 设置音频编解码器
-            if (audioCodec != null && !audioCodec.isEmpty()) {
-                if ("aac".equalsIgnoreCase(audioCodec)) {
-                    recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                } else if ("mp3".equalsIgnoreCase(audioCodec)) {
-                    recorder.setAudioCodec(avcodec.AV_CODEC_ID_MP3);
-                } else {
-                    throw new IllegalArgumentException("不支持的音频编码格式: " + audioCodec);
-                }
+            if (SegmentedOutput.isSegmented(outputFormat)) {
+                recorder.setFrameRate(grabber.getFrameRate());
+                SegmentedOutput.configure(recorder, outputFormat, outputPath, grabber.getFrameRate(), segmentSeconds);
             } else {
-                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-            }
-            
-            if (bitrate != null && !bitrate.isEmpty()) {
-                recorder.setVideoBitrate(parseBitrate(bitrate));
+                recorder.setFormat("mp4");
             }
-            
-            recorder.setFormat("mp4");
             recorder.start();
             
             // 转码过程
@@ -385,6 +379,7 @@ public class FFmpegUtil {
             
             recorder.stop();
             recorder.release();
+            return outputPath;
             
         } catch (Exception e) {
             log.error("视频转码失败", e);
@@ -392,7 +387,50 @@ public class FFmpegUtil {
         }
     }
     
-    private static int parseBitrate(String bitrate) {
+    /**
+     * 按转码请求设置录制器的视频/音频编码器和码率
+     *
+     * @param videoCodec h264 / h265，为空时使用h264
+     * @param audioCodec aac / mp3，为空时使用aac
+     * @param bitrate    视频码率（例如：2M、800k），为空时使用录制器默认值
+     */
+    public static void configureTranscodeCodecs(FFmpegFrameRecorder recorder, String videoCodec,
+                                                String audioCodec, String bitrate) {
+        recorder.setVideoCodec(videoCodecId(videoCodec));
+        recorder.setAudioCodec(audioCodecId(audioCodec));
+
+        if (bitrate != null && !bitrate.isEmpty()) {
+            recorder.setVideoBitrate(parseBitrate(bitrate));
+        }
+    }
+    
+    /**
+     * 视频编码名称对应的编码器ID：h264 / h265，为空时为h264
+     */
+    public static int videoCodecId(String videoCodec) {
+        if (videoCodec == null || videoCodec.isEmpty() || "h264".equalsIgnoreCase(videoCodec)) {
+            return avcodec.AV_CODEC_ID_H264;
+        }
+        if ("h265".equalsIgnoreCase(videoCodec)) {
+            return avcodec.AV_CODEC_ID_HEVC;
+        }
+        throw new IllegalArgumentException("不支持的视频编码格式: " + videoCodec);
+    }
+
+    /**
+     * 音频编码名称对应的编码器ID：aac / mp3，为空时为aac
+     */
+    public static int audioCodecId(String audioCodec) {
+        if (audioCodec == null || audioCodec.isEmpty() || "aac".equalsIgnoreCase(audioCodec)) {
+            return avcodec.AV_CODEC_ID_AAC;
+        }
+        if ("mp3".equalsIgnoreCase(audioCodec)) {
+            return avcodec.AV_CODEC_ID_MP3;
+        }
+        throw new IllegalArgumentException("不支持的音频编码格式: " + audioCodec);
+    }
+    
+    public static int parseBitrate(String bitrate) {
         bitrate = bitrate.toLowerCase();
         int multiplier = 1;
         
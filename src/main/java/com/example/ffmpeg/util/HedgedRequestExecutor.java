@@ -0,0 +1,157 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 对冲请求执行器
+ *
+ * 请求在最近成功延迟的指定分位数时间内仍未返回时，再发起一次相同请求，
+ * 取先返回结果者并取消另一个。对冲次数不超过总调用数的budgetPercent%。
+ * 主请求在对冲发出前失败时立即返回错误并取消对冲计时，不会重发注定失败的请求。
+ */
+@Slf4j
+public class HedgedRequestExecutor {
+
+    private final boolean enabled;
+    private final double quantile;
+    private final int minSamples;
+    private final long minDelayMs;
+    private final double budgetPercent;
+
+    /** 最近成功请求延迟的环形缓冲（毫秒） */
+    private final long[] window;
+    private int windowIndex;
+    private int windowCount;
+
+    private final AtomicLong totalCalls = new AtomicLong();
+    private final AtomicLong hedgedCalls = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public HedgedRequestExecutor(boolean enabled, double quantile, int windowSize, int minSamples,
+                                 long minDelayMs, double budgetPercent) {
+        this.enabled = enabled;
+        this.quantile = Math.min(Math.max(quantile, 0.5), 0.999);
+        this.window = new long[Math.max(1, windowSize)];
+        this.minSamples = Math.max(1, minSamples);
+        this.minDelayMs = minDelayMs;
+        this.budgetPercent = budgetPercent;
+    }
+
+    /**
+     * 执行请求，必要时发起对冲
+     *
+     * @param call 每次调用都会构建并发出一个新请求
+     */
+    public <T> Mono<T> execute(Supplier<Mono<T>> call) {
+        if (!enabled) {
+            return Mono.defer(call::get);
+        }
+
+        return Mono.defer(() -> {
+            totalCalls.incrementAndGet();
+            Long delayMs = hedgeDelayMs();
+            if (delayMs == null) {
+                return timed(call);
+            }
+
+            // 主请求失败时结束对冲计时；对冲已发出则不受影响，继续等待其结果
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            Mono<T> primary = timed(call).doOnError(e -> primaryFailed.tryEmitEmpty());
+            Mono<T> hedge = Mono.delay(Duration.ofMillis(delayMs))
+                    .takeUntilOther(primaryFailed.asMono())
+                    .flatMap(tick -> {
+                        if (!tryAcquireBudget()) {
+                            // 预算不足时不对冲，直接结束，结果以主请求为准
+                            return Mono.<T>empty();
+                        }
+                        log.debug("检测请求超过{}ms未返回，发起对冲请求", delayMs);
+                        return timed(call).doOnNext(result -> hedgeWins.incrementAndGet());
+                    });
+
+            // 取先返回结果者；对冲发出后一个请求失败时继续等待另一个，两者都失败才返回错误
+            return Mono.firstWithValue(primary, hedge)
+                    .onErrorMap(NoSuchElementException.class, HedgedRequestExecutor::firstError);
+        });
+    }
+
+    /**
+     * 对冲统计信息
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("totalCalls", totalCalls.get());
+        stats.put("hedgedCalls", hedgedCalls.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("budgetPercent", budgetPercent);
+        Long delayMs = hedgeDelayMs();
+        stats.put("currentHedgeDelayMs", delayMs != null ? delayMs : -1);
+        return stats;
+    }
+
+    /**
+     * 两个请求都没有结果时返回主请求的错误，而不是firstWithValue的汇总异常
+     */
+    private static Throwable firstError(NoSuchElementException e) {
+        if (e.getCause() == null) {
+            return e;
+        }
+        List<Throwable> errors = Exceptions.unwrapMultiple(e.getCause());
+        return errors.isEmpty() ? e : errors.get(0);
+    }
+
+    private <T> Mono<T> timed(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.get().doOnNext(result -> record((System.nanoTime() - start) / 1_000_000));
+        });
+    }
+
+    private boolean tryAcquireBudget() {
+        while (true) {
+            long hedged = hedgedCalls.get();
+            if (hedged + 1 > totalCalls.get() * budgetPercent / 100.0) {
+                return false;
+            }
+            if (hedgedCalls.compareAndSet(hedged, hedged + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void record(long latencyMs) {
+        window[windowIndex] = latencyMs;
+        windowIndex = (windowIndex + 1) % window.length;
+        if (windowCount < window.length) {
+            windowCount++;
+        }
+    }
+
+    /**
+     * 当前对冲等待时间，样本不足时返回null（不对冲）
+     */
+    private Long hedgeDelayMs() {
+        long[] samples;
+        synchronized (this) {
+            if (windowCount < minSamples) {
+                return null;
+            }
+            samples = Arrays.copyOf(window, windowCount);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(quantile * samples.length) - 1;
+        return Math.max(minDelayMs, samples[Math.max(0, index)]);
+    }
+}
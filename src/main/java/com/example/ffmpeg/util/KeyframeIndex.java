@@ -0,0 +1,285 @@
+package com.example.ffmpeg.util;
+
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个媒体文件的关键帧索引：关键帧显示时间、字节偏移、帧序号，以及帧数和视频时间基
+ *
+ * 以文件路径、大小和修改时间标识，文件变化后索引失效。
+ * 序列化为紧凑的二进制边车文件，时间和偏移按差值变长编码。
+ */
+public class KeyframeIndex {
+
+    private static final int MAGIC = 0x4B464931; // "KFI1"
+
+    private final String path;
+    private final long size;
+    private final long modifiedMs;
+    private final int timeBaseNum;
+    private final int timeBaseDen;
+    private final long frameCount;
+    private final long lengthUs;
+    private final double frameRate;
+    private final long[] ptsUs;
+    private final long[] frameNumbers;
+    private final long[] positions;
+
+    KeyframeIndex(String path, long size, long modifiedMs, int timeBaseNum, int timeBaseDen,
+                  long frameCount, long lengthUs, double frameRate,
+                  long[] ptsUs, long[] frameNumbers, long[] positions) {
+        this.path = path;
+        this.size = size;
+        this.modifiedMs = modifiedMs;
+        this.timeBaseNum = timeBaseNum;
+        this.timeBaseDen = timeBaseDen;
+        this.frameCount = frameCount;
+        this.lengthUs = lengthUs;
+        this.frameRate = frameRate;
+        this.ptsUs = ptsUs;
+        this.frameNumbers = frameNumbers;
+        this.positions = positions;
+    }
+
+    /**
+     * 打开文件扫描关键帧建立索引（不解码）
+     */
+    public static KeyframeIndex build(Path file) throws Exception {
+        long size = Files.size(file);
+        long modifiedMs = Files.getLastModifiedTime(file).toMillis();
+
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file.toString())) {
+            grabber.start();
+            AVFormatContext ifmt = grabber.getFormatContext();
+            int videoIndex = PacketRemuxer.videoStreamIndex(ifmt);
+            int timeBaseNum = 1;
+            int timeBaseDen = 1000000;
+            if (videoIndex >= 0) {
+                AVStream stream = ifmt.streams(videoIndex);
+                timeBaseNum = stream.time_base().num();
+                timeBaseDen = stream.time_base().den();
+            }
+            long lengthUs = grabber.getLengthInTime();
+            double frameRate = grabber.getFrameRate();
+            long frameCount = grabber.getLengthInFrames();
+
+            List<PacketRemuxer.Keyframe> keyframes = PacketRemuxer.listKeyframes(grabber);
+            int count = keyframes.size();
+            long[] ptsUs = new long[count];
+            long[] frameNumbers = new long[count];
+            long[] positions = new long[count];
+            for (int i = 0; i < count; i++) {
+                PacketRemuxer.Keyframe keyframe = keyframes.get(i);
+                ptsUs[i] = keyframe.ptsUs;
+                frameNumbers[i] = keyframe.frameNumber;
+                positions[i] = keyframe.position;
+            }
+            // 按显示时间排序（数据包扫描得到的是解码顺序，关键帧一般已有序）
+            if (!isSorted(ptsUs)) {
+                sortByPts(ptsUs, frameNumbers, positions);
+            }
+            return new KeyframeIndex(file.toString(), size, modifiedMs, timeBaseNum, timeBaseDen,
+                    frameCount, lengthUs, frameRate, ptsUs, frameNumbers, positions);
+        }
+    }
+
+    /**
+     * 索引是否仍对应磁盘上的文件
+     */
+    public boolean matches(long size, long modifiedMs) {
+        return this.size == size && this.modifiedMs == modifiedMs;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getLengthUs() {
+        return lengthUs;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public int getTimeBaseNum() {
+        return timeBaseNum;
+    }
+
+    public int getTimeBaseDen() {
+        return timeBaseDen;
+    }
+
+    public int size() {
+        return ptsUs.length;
+    }
+
+    public PacketRemuxer.Keyframe get(int i) {
+        return new PacketRemuxer.Keyframe(ptsUs[i], frameNumbers[i], positions[i]);
+    }
+
+    public List<PacketRemuxer.Keyframe> getKeyframes() {
+        List<PacketRemuxer.Keyframe> keyframes = new ArrayList<>(ptsUs.length);
+        for (int i = 0; i < ptsUs.length; i++) {
+            keyframes.add(get(i));
+        }
+        return keyframes;
+    }
+
+    /**
+     * 显示时间不晚于timeUs的最后一个关键帧，timeUs早于首个关键帧时返回首个关键帧，无关键帧时返回null
+     */
+    public PacketRemuxer.Keyframe atOrBefore(long timeUs) {
+        if (ptsUs.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(ptsUs, timeUs);
+        if (i < 0) {
+            i = Math.max(0, -i - 2);
+        }
+        return get(i);
+    }
+
+    /**
+     * 显示时间在[startUs, endUs]内的关键帧时间（微秒）
+     */
+    public List<Long> between(long startUs, long endUs) {
+        List<Long> result = new ArrayList<>();
+        int i = Arrays.binarySearch(ptsUs, startUs);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < ptsUs.length && ptsUs[i] <= endUs; i++) {
+            result.add(ptsUs[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 写出边车文件
+     */
+    public void writeTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modifiedMs);
+            out.writeInt(timeBaseNum);
+            out.writeInt(timeBaseDen);
+            out.writeLong(frameCount);
+            out.writeLong(lengthUs);
+            out.writeDouble(frameRate);
+            writeVarLong(out, ptsUs.length);
+            writeDeltas(out, ptsUs);
+            writeDeltas(out, frameNumbers);
+            writeDeltas(out, positions);
+        }
+    }
+
+    /**
+     * 读取边车文件，格式不符时抛出IOException
+     */
+    public static KeyframeIndex readFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("关键帧索引文件格式错误: " + file);
+            }
+            String path = in.readUTF();
+            long size = in.readLong();
+            long modifiedMs = in.readLong();
+            int timeBaseNum = in.readInt();
+            int timeBaseDen = in.readInt();
+            long frameCount = in.readLong();
+            long lengthUs = in.readLong();
+            double frameRate = in.readDouble();
+            int count = (int) readVarLong(in);
+            long[] ptsUs = readDeltas(in, count);
+            long[] frameNumbers = readDeltas(in, count);
+            long[] positions = readDeltas(in, count);
+            return new KeyframeIndex(path, size, modifiedMs, timeBaseNum, timeBaseDen,
+                    frameCount, lengthUs, frameRate, ptsUs, frameNumbers, positions);
+        }
+    }
+
+    private static void writeDeltas(DataOutputStream out, long[] values) throws IOException {
+        long previous = 0;
+        for (long value : values) {
+            long delta = value - previous;
+            // ZigZag编码，偏移未知时为-1
+            writeVarLong(out, (delta << 1) ^ (delta >> 63));
+            previous = value;
+        }
+    }
+
+    private static long[] readDeltas(DataInputStream in, int count) throws IOException {
+        long[] values = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long zigzag = readVarLong(in);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("关键帧索引变长整数格式错误");
+    }
+
+    private static boolean isSorted(long[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void sortByPts(long[] ptsUs, long[] frameNumbers, long[] positions) {
+        Integer[] order = new Integer[ptsUs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ptsUs[a], ptsUs[b]));
+        long[] pts = ptsUs.clone();
+        long[] frames = frameNumbers.clone();
+        long[] pos = positions.clone();
+        for (int i = 0; i < order.length; i++) {
+            ptsUs[i] = pts[order[i]];
+            frameNumbers[i] = frames[order[i]];
+            positions[i] = pos[order[i]];
+        }
+    }
+}
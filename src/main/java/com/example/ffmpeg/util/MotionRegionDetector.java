@@ -0,0 +1,188 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.global.opencv_video;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_video.BackgroundSubtractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于背景建模(MOG2/KNN)的运动区域检测
+ *
+ * 每帧在缩小后的图像上更新背景模型，得到前景掩码后提取运动块，
+ * 映射回原图坐标并外扩padding、合并重叠区域。用于只对运动区域发起检测，
+ * 或在画面静止时跳过检测。
+ */
+@Slf4j
+public class MotionRegionDetector implements AutoCloseable {
+
+    /** 背景建模处理宽度 */
+    private static final int PROCESSING_WIDTH = 320;
+    /** 背景模型学习帧数 */
+    private static final int HISTORY = 300;
+    /** 模型学习完成前不做运动门控 */
+    private static final int WARMUP_FRAMES = 30;
+    /** 运动块最小面积（占缩小后画面的比例） */
+    private static final double MIN_AREA_RATIO = 0.0005;
+    /** 运动区域总面积超过该比例时视为全局运动（镜头移动），改为整帧检测 */
+    private static final double MAX_COVERAGE = 0.5;
+    /** 运动区域数量上限，超过时改为整帧检测 */
+    private static final int MAX_REGIONS = 8;
+
+    private final BackgroundSubtractor subtractor;
+    private final int padding;
+    private final Mat small = new Mat();
+    private final Mat foreground = new Mat();
+    private final Mat kernel;
+
+    private int frameCount;
+    private List<Rect> regions = new ArrayList<>();
+    private double coverage;
+
+    /**
+     * @param algorithm MOG2 或 KNN
+     * @param padding   运动区域外扩像素（原图坐标）
+     */
+    public MotionRegionDetector(String algorithm, int padding) {
+        if ("KNN".equalsIgnoreCase(algorithm)) {
+            this.subtractor = opencv_video.createBackgroundSubtractorKNN(HISTORY, 400.0, true);
+        } else {
+            this.subtractor = opencv_video.createBackgroundSubtractorMOG2(HISTORY, 16.0, true);
+        }
+        this.padding = Math.max(0, padding);
+        this.kernel = opencv_imgproc.getStructuringElement(opencv_imgproc.MORPH_ELLIPSE, new Size(3, 3));
+    }
+
+    /**
+     * 用当前帧更新背景模型并计算运动区域
+     */
+    public void apply(Mat frame) {
+        frameCount++;
+
+        double scale = Math.min(1.0, (double) PROCESSING_WIDTH / frame.cols());
+        Mat input = frame;
+        if (scale < 1.0) {
+            opencv_imgproc.resize(frame, small, new Size((int) (frame.cols() * scale), (int) (frame.rows() * scale)),
+                    0, 0, opencv_imgproc.INTER_AREA);
+            input = small;
+        }
+
+        subtractor.apply(input, foreground);
+
+        // 阴影像素值为127，阈值化去除；开运算去噪，膨胀连接破碎的前景
+        opencv_imgproc.threshold(foreground, foreground, 200, 255, opencv_imgproc.THRESH_BINARY);
+        opencv_imgproc.morphologyEx(foreground, foreground, opencv_imgproc.MORPH_OPEN, kernel);
+        opencv_imgproc.dilate(foreground, foreground, kernel);
+        opencv_imgproc.dilate(foreground, foreground, kernel);
+
+        double minArea = MIN_AREA_RATIO * input.cols() * input.rows();
+        List<Rect> found = new ArrayList<>();
+        try (MatVector contours = new MatVector()) {
+            opencv_imgproc.findContours(foreground, contours, opencv_imgproc.RETR_EXTERNAL,
+                    opencv_imgproc.CHAIN_APPROX_SIMPLE);
+            for (long i = 0; i < contours.size(); i++) {
+                Mat contour = contours.get(i);
+                if (opencv_imgproc.contourArea(contour) < minArea) {
+                    continue;
+                }
+                Rect box = opencv_imgproc.boundingRect(contour);
+                found.add(toFrameRect(box, scale, frame.cols(), frame.rows()));
+            }
+        }
+
+        regions = mergeOverlapping(found);
+        double area = 0;
+        for (Rect region : regions) {
+            area += (double) region.width() * region.height();
+        }
+        coverage = area / ((double) frame.cols() * frame.rows());
+    }
+
+    /**
+     * 背景模型是否已完成预热
+     */
+    public boolean isReady() {
+        return frameCount > WARMUP_FRAMES;
+    }
+
+    /**
+     * 当前帧是否存在运动
+     */
+    public boolean hasMotion() {
+        return !regions.isEmpty();
+    }
+
+    /**
+     * 运动范围过大（镜头移动等），区域裁剪不再划算
+     */
+    public boolean isGlobalMotion() {
+        return coverage > MAX_COVERAGE || regions.size() > MAX_REGIONS;
+    }
+
+    /**
+     * 当前帧的运动区域（原图坐标，已外扩和合并）
+     */
+    public List<Rect> getRegions() {
+        return regions;
+    }
+
+    public double getCoverage() {
+        return coverage;
+    }
+
+    @Override
+    public void close() {
+        subtractor.close();
+        small.release();
+        foreground.release();
+        kernel.release();
+    }
+
+    private Rect toFrameRect(Rect box, double scale, int frameWidth, int frameHeight) {
+        int x1 = Math.max(0, (int) Math.floor(box.x() / scale) - padding);
+        int y1 = Math.max(0, (int) Math.floor(box.y() / scale) - padding);
+        int x2 = Math.min(frameWidth, (int) Math.ceil((box.x() + box.width()) / scale) + padding);
+        int y2 = Math.min(frameHeight, (int) Math.ceil((box.y() + box.height()) / scale) + padding);
+        return new Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * 反复合并相交的矩形，直到没有重叠
+     */
+    private List<Rect> mergeOverlapping(List<Rect> rects) {
+        List<Rect> merged = new ArrayList<>(rects);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            outer:
+            for (int i = 0; i < merged.size(); i++) {
+                for (int j = i + 1; j < merged.size(); j++) {
+                    Rect a = merged.get(i);
+                    Rect b = merged.get(j);
+                    if (intersects(a, b)) {
+                        int x1 = Math.min(a.x(), b.x());
+                        int y1 = Math.min(a.y(), b.y());
+                        int x2 = Math.max(a.x() + a.width(), b.x() + b.width());
+                        int y2 = Math.max(a.y() + a.height(), b.y() + b.height());
+                        merged.set(i, new Rect(x1, y1, x2 - x1, y2 - y1));
+                        merged.remove(j);
+                        changed = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    private boolean intersects(Rect a, Rect b) {
+        return a.x() < b.x() + b.width() && b.x() < a.x() + a.width()
+                && a.y() < b.y() + b.height() && b.y() < a.y() + a.height();
+    }
+}
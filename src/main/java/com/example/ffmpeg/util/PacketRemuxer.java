@@ -0,0 +1,807 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIOContext;
+import org.bytedeco.ffmpeg.avformat.AVIndexEntry;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_NONE;
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_parameters_copy;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_get_name;
+import static org.bytedeco.ffmpeg.global.avformat.AVFMT_NOFILE;
+import static org.bytedeco.ffmpeg.global.avformat.AVFMT_NO_BYTE_SEEK;
+import static org.bytedeco.ffmpeg.global.avformat.AVIO_FLAG_WRITE;
+import static org.bytedeco.ffmpeg.global.avformat.AVINDEX_KEYFRAME;
+import static org.bytedeco.ffmpeg.global.avformat.AVSEEK_FLAG_BACKWARD;
+import static org.bytedeco.ffmpeg.global.avformat.AVSEEK_FLAG_BYTE;
+import static org.bytedeco.ffmpeg.global.avformat.av_interleaved_write_frame;
+import static org.bytedeco.ffmpeg.global.avformat.av_seek_frame;
+import static org.bytedeco.ffmpeg.global.avformat.av_write_trailer;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_alloc_output_context2;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_free_context;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_new_stream;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_write_header;
+import static org.bytedeco.ffmpeg.global.avformat.avio_closep;
+import static org.bytedeco.ffmpeg.global.avformat.avio_open;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_index_get_entries_count;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_index_get_entry;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * 封装层剪辑工具：通过grabPacket/recordPacket直接复制压缩数据包，不解码不重新编码
+ *
+ * 输出从起始时间处或之前最近的关键帧开始，时间戳整体平移到从0开始，
+ * 速度取决于磁盘I/O而不是编解码。
+ */
+@Slf4j
+public class PacketRemuxer {
+
+    private static final AVRational MICROS = av_make_q(1, 1000000);
+
+    /**
+     * 输入的编码参数，用于判断能否直接按数据包拼接，以及按参考参数重新编码
+     */
+    public static class StreamInfo {
+        public final long lengthUs;
+        public final int videoCodec;
+        public final int width;
+        public final int height;
+        public final int pixelFormat;
+        public final int timeBaseNum;
+        public final int timeBaseDen;
+        public final double frameRate;
+        public final long videoBitrate;
+        public final int profile;
+        public final byte[] extradata;
+        public final int audioCodec;
+        public final int sampleRate;
+        public final int audioChannels;
+        public final int audioBitrate;
+
+        private StreamInfo(FFmpegFrameGrabber grabber) {
+            AVFormatContext ifmt = grabber.getFormatContext();
+            int videoIndex = videoStreamIndex(ifmt);
+            this.lengthUs = grabber.getLengthInTime();
+            if (videoIndex >= 0) {
+                AVStream stream = ifmt.streams(videoIndex);
+                AVCodecParameters params = stream.codecpar();
+                this.videoCodec = params.codec_id();
+                this.width = params.width();
+                this.height = params.height();
+                this.pixelFormat = params.format();
+                this.timeBaseNum = stream.time_base().num();
+                this.timeBaseDen = stream.time_base().den();
+                this.videoBitrate = params.bit_rate() > 0 ? params.bit_rate() : grabber.getVideoBitrate();
+                this.profile = params.profile();
+                this.extradata = new byte[Math.max(0, params.extradata_size())];
+                if (extradata.length > 0) {
+                    params.extradata().get(extradata);
+                }
+            } else {
+                this.videoCodec = AV_CODEC_ID_NONE;
+                this.width = 0;
+                this.height = 0;
+                this.pixelFormat = -1;
+                this.timeBaseNum = 0;
+                this.timeBaseDen = 0;
+                this.videoBitrate = 0;
+                this.profile = -1;
+                this.extradata = new byte[0];
+            }
+            this.frameRate = grabber.getFrameRate();
+            this.audioCodec = grabber.getAudioCodec();
+            this.sampleRate = grabber.getSampleRate();
+            this.audioChannels = grabber.getAudioChannels();
+            this.audioBitrate = grabber.getAudioBitrate();
+        }
+
+        public static StreamInfo probe(String inputPath) throws Exception {
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+                grabber.start();
+                StreamInfo info = new StreamInfo(grabber);
+                grabber.stop();
+                return info;
+            }
+        }
+
+        /**
+         * 编码格式、分辨率、像素格式、时间基和音频参数一致，解码器可以无缝接续
+         */
+        public boolean isConcatCompatible(StreamInfo other) {
+            return videoCodec == other.videoCodec && width == other.width && height == other.height
+                    && pixelFormat == other.pixelFormat
+                    && timeBaseNum == other.timeBaseNum && timeBaseDen == other.timeBaseDen
+                    && audioCodec == other.audioCodec && sampleRate == other.sampleRate
+                    && audioChannels == other.audioChannels;
+        }
+
+        /**
+         * 容器中的编码参数集（如H.264 avcC）也相同，可以直接拼接到同一个MP4/MOV中
+         */
+        public boolean isIdentical(StreamInfo other) {
+            return isConcatCompatible(other) && Arrays.equals(extradata, other.extradata);
+        }
+
+        public String describe() {
+            return String.format("%s %dx%d tb=%d/%d audio=%s/%dHz/%dch", avcodec_get_name(videoCodec).getString(),
+                    width, height, timeBaseNum, timeBaseDen, avcodec_get_name(audioCodec).getString(),
+                    sampleRate, audioChannels);
+        }
+    }
+
+    /**
+     * 创建包复制用的录制器，流参数直接从输入格式上下文复制（容器格式按输出文件扩展名推断）
+     */
+    public static FFmpegFrameRecorder openRecorder(FFmpegFrameGrabber grabber, String outputPath) throws Exception {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath,
+                grabber.getImageWidth(),
+                grabber.getImageHeight(),
+                grabber.getAudioChannels());
+        recorder.start(grabber.getFormatContext());
+        return recorder;
+    }
+
+    /**
+     * 复制[startUs, endUs]范围内的数据包（相对文件起点的微秒）
+     *
+     * 视频按解码时间戳判断结束，保证结束前显示的帧所依赖的参考帧都被写出
+     *
+     * @return 实际输出起点（起始关键帧时间，微秒）
+     */
+    public static long copyRange(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder,
+                                 long startUs, long endUs) throws Exception {
+        return copyRange(grabber, recorder, startUs, endUs, false);
+    }
+
+    /**
+     * 同copyRange，endAtKeyframe为true时在显示时间不早于endUs的视频关键帧处停止（不含该关键帧），
+     * 用于与从该关键帧开始的后续片段无缝衔接
+     */
+    public static long copyRange(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder,
+                                 long startUs, long endUs, boolean endAtKeyframe) throws Exception {
+        return copyRange(grabber, recorder, startUs, endUs, endAtKeyframe, null);
+    }
+
+    /**
+     * 同copyRange，startKeyframe为关键帧索引中起点处或之前的关键帧时直接定位到该关键帧
+     */
+    public static long copyRange(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder,
+                                 long startUs, long endUs, boolean endAtKeyframe,
+                                 Keyframe startKeyframe) throws Exception {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        long originUs = formatOriginUs(ifmt);
+        int videoIndex = videoStreamIndex(ifmt);
+        int audioIndex = audioStreamIndex(ifmt);
+
+        if (startKeyframe != null && startKeyframe.ptsUs > 0) {
+            seekToKeyframe(grabber, startKeyframe);
+        } else if (startUs > 0) {
+            // 按容器索引定位到起点之前的关键帧，不解码
+            av_seek_frame(ifmt, -1, originUs + startUs, AVSEEK_FLAG_BACKWARD);
+        }
+
+        long baseUs = Long.MIN_VALUE;
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            int index = packet.stream_index();
+            boolean isVideo = index == videoIndex;
+            if (!isVideo && index != audioIndex) {
+                continue;
+            }
+            AVStream stream = ifmt.streams(index);
+
+            long tsUs = packetTimeUs(packet, stream, originUs);
+            if (tsUs == Long.MIN_VALUE) {
+                continue;
+            }
+
+            if (baseUs == Long.MIN_VALUE) {
+                // 从第一个视频关键帧开始；无视频流时从第一个包开始
+                if (videoIndex >= 0 && !(isVideo && (packet.flags() & AV_PKT_FLAG_KEY) != 0)) {
+                    continue;
+                }
+                baseUs = tsUs;
+            }
+
+            if (endAtKeyframe) {
+                if (isVideo && (packet.flags() & AV_PKT_FLAG_KEY) != 0 && tsUs > baseUs
+                        && presentationTimeUs(packet, stream, originUs) >= endUs) {
+                    break;
+                }
+                if (!isVideo && tsUs >= endUs) {
+                    continue;
+                }
+            } else if (tsUs > endUs) {
+                if (videoIndex < 0 || isVideo) {
+                    break;
+                }
+                continue;
+            }
+            if (tsUs < baseUs) {
+                // 关键帧之前的音频
+                continue;
+            }
+
+            shift(packet, av_rescale_q(originUs + baseUs, MICROS, stream.time_base()));
+            recorder.recordPacket(packet);
+        }
+
+        if (baseUs == Long.MIN_VALUE) {
+            log.warn("剪辑范围内没有可复制的数据包: {}s - {}s", startUs / 1e6, endUs / 1e6);
+            return startUs;
+        }
+        if (baseUs < startUs) {
+            log.debug("包复制从关键帧开始: 请求{}s，实际{}s", startUs / 1e6, baseUs / 1e6);
+        }
+        return baseUs;
+    }
+
+    /**
+     * 单次解复用按时长分割：到达分段边界后的第一个视频关键帧处切换到新的输出文件，全程复制数据包
+     *
+     * @param outputPattern 输出文件名模式（例如：output_%d.mp4），序号从1开始
+     * @return 生成的片段路径
+     */
+    public static List<String> split(FFmpegFrameGrabber grabber, String outputPattern, long segmentUs) throws Exception {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        long originUs = formatOriginUs(ifmt);
+        int videoIndex = videoStreamIndex(ifmt);
+        int audioIndex = audioStreamIndex(ifmt);
+
+        List<String> outputs = new ArrayList<>();
+        FFmpegFrameRecorder recorder = null;
+        long baseUs = 0;
+        long boundaryUs = segmentUs;
+        try {
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                int index = packet.stream_index();
+                boolean isVideo = index == videoIndex;
+                if (!isVideo && index != audioIndex) {
+                    continue;
+                }
+                AVStream stream = ifmt.streams(index);
+                long tsUs = packetTimeUs(packet, stream, originUs);
+                if (tsUs == Long.MIN_VALUE) {
+                    continue;
+                }
+
+                boolean keyframe = isVideo && (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+                boolean rollover;
+                if (recorder == null) {
+                    // 第一个片段从第一个视频关键帧开始
+                    if (videoIndex >= 0 && !keyframe) {
+                        continue;
+                    }
+                    rollover = true;
+                } else if (videoIndex >= 0) {
+                    rollover = keyframe && presentationTimeUs(packet, stream, originUs) >= boundaryUs;
+                } else {
+                    rollover = tsUs >= boundaryUs;
+                }
+
+                if (rollover) {
+                    if (recorder != null) {
+                        recorder.stop();
+                        recorder.release();
+                    }
+                    String outputPath = String.format(outputPattern, outputs.size() + 1);
+                    recorder = openRecorder(grabber, outputPath);
+                    outputs.add(outputPath);
+                    baseUs = tsUs;
+                    while (boundaryUs <= tsUs) {
+                        boundaryUs += segmentUs;
+                    }
+                }
+                if (tsUs < baseUs) {
+                    // 新片段关键帧之前交错到达的音频
+                    continue;
+                }
+
+                shift(packet, av_rescale_q(originUs + baseUs, MICROS, stream.time_base()));
+                recorder.recordPacket(packet);
+            }
+        } finally {
+            if (recorder != null) {
+                recorder.stop();
+                recorder.release();
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * 只读数据包扫描[startUs, endUs]内的视频关键帧显示时间（相对文件起点，微秒），不解码
+     */
+    public static List<Long> scanKeyframes(FFmpegFrameGrabber grabber, long startUs, long endUs) throws Exception {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        long originUs = formatOriginUs(ifmt);
+        int videoIndex = videoStreamIndex(ifmt);
+        List<Long> keyframes = new ArrayList<>();
+        if (videoIndex < 0) {
+            return keyframes;
+        }
+
+        av_seek_frame(ifmt, -1, originUs + Math.max(0, startUs), AVSEEK_FLAG_BACKWARD);
+        AVStream stream = ifmt.streams(videoIndex);
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            if (packet.stream_index() != videoIndex) {
+                continue;
+            }
+            long tsUs = packetTimeUs(packet, stream, originUs);
+            if (tsUs != Long.MIN_VALUE && tsUs > endUs) {
+                break;
+            }
+            if ((packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                long ptsUs = presentationTimeUs(packet, stream, originUs);
+                if (ptsUs >= startUs && ptsUs <= endUs) {
+                    keyframes.add(ptsUs);
+                }
+            }
+        }
+        return keyframes;
+    }
+
+    /**
+     * 视频关键帧位置
+     */
+    public static class Keyframe {
+        /** 显示时间（相对文件起点，微秒） */
+        public final long ptsUs;
+        /** 在视频流中的帧序号（解码顺序） */
+        public final long frameNumber;
+        /** 在文件中的字节偏移，未知时为-1 */
+        public final long position;
+
+        public Keyframe(long ptsUs, long frameNumber, long position) {
+            this.ptsUs = ptsUs;
+            this.frameNumber = frameNumber;
+            this.position = position;
+        }
+    }
+
+    /**
+     * 列出整个文件的视频关键帧，不解码
+     *
+     * MP4/MOV等在打开时已加载完整样本索引，且无B帧时索引时间即显示时间，直接读索引；
+     * 其他情况只读数据包头扫描一遍，I/O量与文件大小相当但不做任何解码。
+     */
+    public static List<Keyframe> listKeyframes(FFmpegFrameGrabber grabber) throws Exception {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        int videoIndex = videoStreamIndex(ifmt);
+        if (videoIndex < 0) {
+            return new ArrayList<>();
+        }
+        AVStream stream = ifmt.streams(videoIndex);
+        long originUs = formatOriginUs(ifmt);
+
+        List<Keyframe> indexed = keyframesFromIndex(stream, originUs);
+        if (indexed != null) {
+            return indexed;
+        }
+
+        List<Keyframe> keyframes = new ArrayList<>();
+        av_seek_frame(ifmt, -1, originUs, AVSEEK_FLAG_BACKWARD);
+        long frameNumber = 0;
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            if (packet.stream_index() != videoIndex) {
+                continue;
+            }
+            if ((packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                long ptsUs = presentationTimeUs(packet, stream, originUs);
+                if (ptsUs != Long.MIN_VALUE) {
+                    keyframes.add(new Keyframe(Math.max(0, ptsUs), frameNumber, packet.pos()));
+                }
+            }
+            frameNumber++;
+        }
+        return keyframes;
+    }
+
+    /**
+     * 按已知关键帧定位（只移动读取位置，不刷新解码器，用于数据包复制）
+     *
+     * 容器自身没有索引时（如MPEG-TS），FFmpeg按时间定位需要反复读包二分查找，
+     * 此时按关键帧的字节偏移直接定位；有索引的容器按关键帧的精确时间定位。
+     */
+    public static void seekToKeyframe(FFmpegFrameGrabber grabber, Keyframe keyframe) {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        int videoIndex = videoStreamIndex(ifmt);
+        if (videoIndex >= 0 && keyframe.position >= 0
+                && (ifmt.iformat().flags() & AVFMT_NO_BYTE_SEEK) == 0
+                && avformat_index_get_entries_count(ifmt.streams(videoIndex)) == 0
+                && av_seek_frame(ifmt, -1, keyframe.position, AVSEEK_FLAG_BYTE) >= 0) {
+            return;
+        }
+        av_seek_frame(ifmt, -1, formatOriginUs(ifmt) + keyframe.ptsUs, AVSEEK_FLAG_BACKWARD);
+    }
+
+    /**
+     * 从解复用器的样本索引读取关键帧；索引不完整或时间不是显示时间时返回null
+     */
+    private static List<Keyframe> keyframesFromIndex(AVStream stream, long originUs) {
+        int count = avformat_index_get_entries_count(stream);
+        // 索引需覆盖每一帧（帧序号才准确），且无B帧重排（索引记录的是解码时间）
+        if (count <= 0 || count != stream.nb_frames() || stream.codecpar().video_delay() > 0) {
+            return null;
+        }
+        AVRational timeBase = stream.time_base();
+        List<Keyframe> keyframes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AVIndexEntry entry = avformat_index_get_entry(stream, i);
+            if (entry == null || (entry.flags() & AVINDEX_KEYFRAME) == 0) {
+                continue;
+            }
+            long ptsUs = av_rescale_q(entry.timestamp(), timeBase, MICROS) - originUs;
+            keyframes.add(new Keyframe(Math.max(0, ptsUs), i, entry.pos()));
+        }
+        return keyframes;
+    }
+
+    /**
+     * 按数据包拼接多个编码参数一致的输入，后一个输入的时间戳接在前一个之后
+     *
+     * 录制器以第一个输入的流参数启动，其余输入的数据包换算到第一个输入对应流的时间基后写出
+     */
+    public static void concat(List<String> inputPaths, String outputPath) throws Exception {
+        if (inputPaths.isEmpty()) {
+            throw new IllegalArgumentException("拼接输入列表为空");
+        }
+
+        try (FFmpegFrameGrabber first = new FFmpegFrameGrabber(inputPaths.get(0))) {
+            first.start();
+            AVFormatContext firstFmt = first.getFormatContext();
+            int firstVideo = videoStreamIndex(firstFmt);
+            int firstAudio = audioStreamIndex(firstFmt);
+
+            FFmpegFrameRecorder recorder = openRecorder(first, outputPath);
+            try {
+                long offsetUs = 0;
+                for (int i = 0; i < inputPaths.size(); i++) {
+                    if (i == 0) {
+                        offsetUs = appendPackets(first, recorder, firstFmt, firstVideo, firstAudio, offsetUs);
+                        continue;
+                    }
+                    try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPaths.get(i))) {
+                        grabber.start();
+                        offsetUs = appendPackets(grabber, recorder, firstFmt, firstVideo, firstAudio, offsetUs);
+                        grabber.stop();
+                    }
+                }
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+            first.stop();
+        }
+    }
+
+    /**
+     * 将一个输入的全部音视频数据包平移offsetUs后写出
+     *
+     * @return 该输入结束时间（下一个输入的偏移，微秒）
+     */
+    private static long appendPackets(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder,
+                                      AVFormatContext targetFmt, int targetVideo, int targetAudio,
+                                      long offsetUs) throws Exception {
+        AVFormatContext ifmt = grabber.getFormatContext();
+        long originUs = formatOriginUs(ifmt);
+        int videoIndex = videoStreamIndex(ifmt);
+        int audioIndex = audioStreamIndex(ifmt);
+        long endUs = offsetUs;
+
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            int index = packet.stream_index();
+            int target = index == videoIndex ? targetVideo : index == audioIndex ? targetAudio : -1;
+            if (target < 0) {
+                continue;
+            }
+            AVStream stream = ifmt.streams(index);
+            long ptsUs = presentationTimeUs(packet, stream, originUs);
+            if (ptsUs != Long.MIN_VALUE) {
+                long durationUs = av_rescale_q(packet.duration(), stream.time_base(), MICROS);
+                endUs = Math.max(endUs, offsetUs + ptsUs + durationUs);
+            }
+
+            // 先去掉本输入的起点，再换算到输出对应流的时间基并加上偏移
+            shift(packet, av_rescale_q(originUs, MICROS, stream.time_base()));
+            // 录制器按其输入上下文（第一个输入）的流时间基换算时间戳
+            AVRational targetBase = targetFmt.streams(target).time_base();
+            rescale(packet, stream.time_base(), targetBase);
+            shift(packet, -av_rescale_q(offsetUs, MICROS, targetBase));
+            packet.stream_index(target);
+            recorder.recordPacket(packet);
+        }
+        return endUs;
+    }
+
+    /**
+     * 将一个输入的视频流和另一个输入的音频流复用到同一个输出，均复制数据包不重新编码
+     *
+     * 两路数据包按解码时间交错写出，各自的时间戳以所在输入的起点为零点。
+     *
+     * @param audioInput 音频来源，为null时只输出视频
+     */
+    public static void mux(String videoInput, String audioInput, String outputPath) throws Exception {
+        try (FFmpegFrameGrabber video = new FFmpegFrameGrabber(videoInput);
+             FFmpegFrameGrabber audio = audioInput != null ? new FFmpegFrameGrabber(audioInput) : null) {
+            video.start();
+            if (audio != null) {
+                audio.start();
+            }
+            AVFormatContext videoFmt = video.getFormatContext();
+            AVFormatContext audioFmt = audio != null ? audio.getFormatContext() : null;
+            int videoIndex = videoStreamIndex(videoFmt);
+            int audioIndex = audioFmt != null ? audioStreamIndex(audioFmt) : -1;
+            if (videoIndex < 0) {
+                throw new IllegalArgumentException("输入没有视频流: " + videoInput);
+            }
+
+            AVFormatContext ofmt = new AVFormatContext(null);
+            check(avformat_alloc_output_context2(ofmt, null, null, outputPath), "创建输出失败: " + outputPath);
+            try {
+                AVStream videoIn = videoFmt.streams(videoIndex);
+                AVStream videoOut = addCopiedStream(ofmt, videoIn);
+                AVStream audioIn = audioIndex >= 0 ? audioFmt.streams(audioIndex) : null;
+                AVStream audioOut = audioIn != null ? addCopiedStream(ofmt, audioIn) : null;
+
+                if ((ofmt.oformat().flags() & AVFMT_NOFILE) == 0) {
+                    AVIOContext pb = new AVIOContext(null);
+                    check(avio_open(pb, outputPath, AVIO_FLAG_WRITE), "打开输出文件失败: " + outputPath);
+                    ofmt.pb(pb);
+                }
+                check(avformat_write_header(ofmt, (AVDictionary) null), "写入文件头失败");
+
+                long videoOrigin = formatOriginUs(videoFmt);
+                long audioOrigin = audioFmt != null ? formatOriginUs(audioFmt) : 0;
+                AVPacket videoPacket = nextPacket(video, videoIndex);
+                AVPacket audioPacket = audioIn != null ? nextPacket(audio, audioIndex) : null;
+
+                while (videoPacket != null || audioPacket != null) {
+                    boolean writeVideo = audioPacket == null || (videoPacket != null
+                            && packetTimeUs(videoPacket, videoIn, videoOrigin) <= packetTimeUs(audioPacket, audioIn, audioOrigin));
+                    if (writeVideo) {
+                        writePacket(ofmt, videoPacket, videoIn, videoOut, videoOrigin);
+                        videoPacket = nextPacket(video, videoIndex);
+                    } else {
+                        writePacket(ofmt, audioPacket, audioIn, audioOut, audioOrigin);
+                        audioPacket = nextPacket(audio, audioIndex);
+                    }
+                }
+
+                check(av_write_trailer(ofmt), "写入文件尾失败");
+            } finally {
+                if ((ofmt.oformat().flags() & AVFMT_NOFILE) == 0 && ofmt.pb() != null) {
+                    avio_closep(ofmt.pb());
+                }
+                avformat_free_context(ofmt);
+            }
+        }
+    }
+
+    /**
+     * 音频片段：输入文件中[startUs, endUs)范围的音频（相对文件起点，微秒）
+     */
+    public static class AudioRange {
+        public final String path;
+        public final long startUs;
+        public final long endUs;
+
+        public AudioRange(String path, long startUs, long endUs) {
+            this.path = path;
+            this.startUs = startUs;
+            this.endUs = endUs;
+        }
+    }
+
+    /**
+     * 按数据包依次拼接各输入指定范围的音频为纯音频输出，后一段接在前一段之后，不重新编码
+     *
+     * 各输入的音频编码参数需一致，输出流参数取第一个输入。用于分段处理视频时整体复制音频，
+     * 避免音频在各分段中分别编码，在拼接处产生编码器延迟间隙。
+     */
+    public static void concatAudio(List<AudioRange> ranges, String outputPath) throws Exception {
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("音频片段列表为空");
+        }
+
+        AVFormatContext ofmt = new AVFormatContext(null);
+        check(avformat_alloc_output_context2(ofmt, null, null, outputPath), "创建输出失败: " + outputPath);
+        try {
+            AVStream out = null;
+            long offsetUs = 0;
+            for (AudioRange range : ranges) {
+                try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(range.path)) {
+                    grabber.start();
+                    AVFormatContext ifmt = grabber.getFormatContext();
+                    int audioIndex = audioStreamIndex(ifmt);
+                    if (audioIndex < 0) {
+                        throw new IllegalArgumentException("输入没有音频流: " + range.path);
+                    }
+                    AVStream in = ifmt.streams(audioIndex);
+                    if (out == null) {
+                        out = addCopiedStream(ofmt, in);
+                        if ((ofmt.oformat().flags() & AVFMT_NOFILE) == 0) {
+                            AVIOContext pb = new AVIOContext(null);
+                            check(avio_open(pb, outputPath, AVIO_FLAG_WRITE), "打开输出文件失败: " + outputPath);
+                            ofmt.pb(pb);
+                        }
+                        check(avformat_write_header(ofmt, (AVDictionary) null), "写入文件头失败");
+                    }
+
+                    long originUs = formatOriginUs(ifmt);
+                    if (range.startUs > 0) {
+                        av_seek_frame(ifmt, -1, originUs + range.startUs, AVSEEK_FLAG_BACKWARD);
+                    }
+                    AVPacket packet;
+                    while ((packet = nextPacket(grabber, audioIndex)) != null) {
+                        long ptsUs = presentationTimeUs(packet, in, originUs);
+                        if (ptsUs < range.startUs) {
+                            continue;
+                        }
+                        if (ptsUs >= range.endUs) {
+                            break;
+                        }
+                        // 去掉本段起点，再接到已写出音频之后
+                        writePacket(ofmt, packet, in, out, originUs + range.startUs - offsetUs);
+                    }
+                    offsetUs += range.endUs - range.startUs;
+                }
+            }
+            check(av_write_trailer(ofmt), "写入文件尾失败");
+        } finally {
+            if ((ofmt.oformat().flags() & AVFMT_NOFILE) == 0 && ofmt.pb() != null) {
+                avio_closep(ofmt.pb());
+            }
+            avformat_free_context(ofmt);
+        }
+    }
+
+    private static AVStream addCopiedStream(AVFormatContext ofmt, AVStream in) throws IOException {
+        AVStream out = avformat_new_stream(ofmt, null);
+        if (out == null) {
+            throw new IOException("创建输出流失败");
+        }
+        check(avcodec_parameters_copy(out.codecpar(), in.codecpar()), "复制编码参数失败");
+        // 容器不同，由输出容器重新选择codec_tag
+        out.codecpar().codec_tag(0);
+        out.time_base(in.time_base());
+        return out;
+    }
+
+    /**
+     * 读取指定流的下一个带时间戳的数据包，读完返回null
+     */
+    private static AVPacket nextPacket(FFmpegFrameGrabber grabber, int streamIndex) throws Exception {
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            if (packet.stream_index() == streamIndex
+                    && (packet.dts() != AV_NOPTS_VALUE || packet.pts() != AV_NOPTS_VALUE)) {
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    private static void writePacket(AVFormatContext ofmt, AVPacket packet, AVStream in, AVStream out,
+                                    long originUs) throws IOException {
+        shift(packet, av_rescale_q(originUs, MICROS, in.time_base()));
+        rescale(packet, in.time_base(), out.time_base());
+        packet.stream_index(out.index());
+        packet.pos(-1);
+        check(av_interleaved_write_frame(ofmt, packet), "写入数据包失败");
+    }
+
+    private static void check(int ret, String message) throws IOException {
+        if (ret < 0) {
+            throw new IOException(message + " (错误码 " + ret + ")");
+        }
+    }
+
+    /**
+     * 录制器采用的视频流：JavaCV在start(AVFormatContext)时取最后一个视频流的参数，这里保持一致
+     *
+     * @return 无视频流时返回-1
+     */
+    public static int videoStreamIndex(AVFormatContext ifmt) {
+        int videoIndex = -1;
+        for (int i = 0; i < ifmt.nb_streams(); i++) {
+            if (ifmt.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_VIDEO) {
+                videoIndex = i;
+            }
+        }
+        return videoIndex;
+    }
+
+    /**
+     * 录制器采用的音频流（同样取最后一个）
+     *
+     * @return 无音频流时返回-1
+     */
+    public static int audioStreamIndex(AVFormatContext ifmt) {
+        int audioIndex = -1;
+        for (int i = 0; i < ifmt.nb_streams(); i++) {
+            if (ifmt.streams(i).codecpar().codec_type() == AVMEDIA_TYPE_AUDIO) {
+                audioIndex = i;
+            }
+        }
+        return audioIndex;
+    }
+
+    /**
+     * 容器起始时间（微秒），流时间戳以此为零点
+     */
+    public static long formatOriginUs(AVFormatContext ifmt) {
+        return ifmt.start_time() != AV_NOPTS_VALUE ? ifmt.start_time() : 0;
+    }
+
+    /**
+     * 数据包相对文件起点的时间（微秒），优先使用解码时间戳
+     *
+     * @return 无时间戳时返回Long.MIN_VALUE
+     */
+    public static long packetTimeUs(AVPacket packet, AVStream stream, long originUs) {
+        long ts = packet.dts() != AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+        if (ts == AV_NOPTS_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return av_rescale_q(ts, stream.time_base(), MICROS) - originUs;
+    }
+
+    /**
+     * 数据包相对文件起点的显示时间（微秒），无显示时间戳时退回解码时间戳
+     *
+     * @return 无时间戳时返回Long.MIN_VALUE
+     */
+    public static long presentationTimeUs(AVPacket packet, AVStream stream, long originUs) {
+        long ts = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+        if (ts == AV_NOPTS_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return av_rescale_q(ts, stream.time_base(), MICROS) - originUs;
+    }
+
+    /**
+     * 将数据包时间戳和时长从一个时间基换算到另一个时间基
+     */
+    public static void rescale(AVPacket packet, AVRational from, AVRational to) {
+        if (from.num() == to.num() && from.den() == to.den()) {
+            return;
+        }
+        if (packet.pts() != AV_NOPTS_VALUE) {
+            packet.pts(av_rescale_q(packet.pts(), from, to));
+        }
+        if (packet.dts() != AV_NOPTS_VALUE) {
+            packet.dts(av_rescale_q(packet.dts(), from, to));
+        }
+        packet.duration(av_rescale_q(packet.duration(), from, to));
+    }
+
+    /**
+     * 将数据包的显示/解码时间戳整体减去offset（流时间基）
+     */
+    public static void shift(AVPacket packet, long offset) {
+        if (packet.pts() != AV_NOPTS_VALUE) {
+            packet.pts(packet.pts() - offset);
+        }
+        if (packet.dts() != AV_NOPTS_VALUE) {
+            packet.dts(packet.dts() - offset);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.ffmpeg.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+
+/**
+ * 分段并行转码
+ *
+ * 在关键帧处把源视频切成K段，每段用独立的grabber/recorder编码为纯视频MPEG-TS片段，
+ * 各段编码参数完全一致，最后按数据包拼接；音频整体处理一次（编码格式相同时直接复制），
+ * 再与拼接后的视频复用到输出文件，避免分段编码音频在段边界产生的编码器延迟间隙。
+ */
+@Slf4j
+public class ParallelTranscoder {
+
+    /** 每段最短时长，过短的分段启动开销占比过高 */
+    private static final long MIN_CHUNK_US = 10_000_000L;
+    /** 关键帧间隔（秒） */
+    private static final double GOP_SECONDS = 2.0;
+
+    /**
+     * 分段并行转码
+     *
+     * @param keyframesUs 源视频关键帧显示时间（微秒，升序），为null时扫描数据包获取
+     * @param chunks      期望分段数，实际分段数受时长和关键帧分布限制
+     * @param executor    分段编码线程池
+     */
+    public static String transcode(String inputPath, String outputPath, String videoCodec, String audioCodec,
+                                   String resolution, String bitrate, int chunks, List<Long> keyframesUs,
+                                   Executor executor) throws Exception {
+        PacketRemuxer.StreamInfo source = PacketRemuxer.StreamInfo.probe(inputPath);
+        if (source.width <= 0 || source.height <= 0) {
+            throw new IllegalArgumentException("输入没有视频流: " + inputPath);
+        }
+        int[] size = RenditionTranscoder.parseResolution(resolution, source.width, source.height);
+        double frameRate = source.frameRate > 0 ? source.frameRate : 30;
+
+        List<Long> keyframes = keyframesUs;
+        if (keyframes == null) {
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+                grabber.start();
+                keyframes = new ArrayList<>();
+                for (PacketRemuxer.Keyframe keyframe : PacketRemuxer.listKeyframes(grabber)) {
+                    keyframes.add(keyframe.ptsUs);
+                }
+                Collections.sort(keyframes);
+            }
+        }
+        List<Long> starts = chunkStarts(keyframes, source.lengthUs, chunks);
+        // 每个编码器分到的线程数，避免K个编码器各自按全部核数开线程
+        int encoderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / starts.size());
+
+        Path output = Paths.get(outputPath).toAbsolutePath();
+        Files.createDirectories(output.getParent());
+        Path workDir = Files.createTempDirectory(output.getParent(), "ptranscode_");
+        try {
+            long begin = System.currentTimeMillis();
+            List<String> parts = new ArrayList<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < starts.size(); i++) {
+                long startUs = starts.get(i);
+                long endUs = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+                String part = workDir.resolve(String.format("chunk_%03d.ts", i)).toString();
+                parts.add(part);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        encodeChunk(inputPath, part, startUs, endUs, size, frameRate, videoCodec, bitrate, encoderThreads);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            // 源音频已是目标编码时直接复制，否则整体编码一次（与视频分段并行）
+            String audioSource = null;
+            if (source.audioChannels > 0) {
+                if (source.audioCodec == FFmpegUtil.audioCodecId(audioCodec)) {
+                    audioSource = inputPath;
+                } else {
+                    String audioPart = workDir.resolve("audio.ts").toString();
+                    audioSource = audioPart;
+                    futures.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            encodeAudio(inputPath, audioPart, audioCodec);
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor));
+                }
+            }
+
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+            }
+            long encodedAt = System.currentTimeMillis();
+
+            String video = workDir.resolve("video.ts").toString();
+            PacketRemuxer.concat(parts, video);
+            PacketRemuxer.mux(video, audioSource, output.toString());
+
+            log.info("分段并行转码完成: {} -> {} ({} 段，编码 {}ms，拼接 {}ms)", inputPath, outputPath,
+                    parts.size(), encodedAt - begin, System.currentTimeMillis() - encodedAt);
+            return outputPath;
+        } finally {
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * 选择各段起点：按时长均分的目标时间向前取最近的关键帧，去掉重复和过短的分段
+     */
+    static List<Long> chunkStarts(List<Long> keyframes, long lengthUs, int chunks) {
+        int count = (int) Math.max(1, Math.min(chunks, lengthUs / MIN_CHUNK_US));
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        for (int i = 1; i < count; i++) {
+            long target = lengthUs / count * i;
+            int index = Collections.binarySearch(keyframes, target);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            if (index < 0) {
+                continue;
+            }
+            long keyframe = keyframes.get(index);
+            if (keyframe - starts.get(starts.size() - 1) >= MIN_CHUNK_US / 2) {
+                starts.add(keyframe);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * 编码[startUs, endUs)的视频为纯视频MPEG-TS片段（参数集随码流携带，便于拼接）
+     */
+    private static void encodeChunk(String inputPath, String outputPath, long startUs, long endUs, int[] size,
+                                    double frameRate, String videoCodec, String bitrate,
+                                    int encoderThreads) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+            grabber.setPixelFormat(AV_PIX_FMT_YUV420P);
+            grabber.start();
+            if (startUs > 0) {
+                // 起点即关键帧，跳转后无需解码前导帧
+                grabber.setVideoTimestamp(startUs);
+            }
+
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath, size[0], size[1], 0)) {
+                recorder.setFormat("mpegts");
+                recorder.setFrameRate(frameRate);
+                recorder.setPixelFormat(AV_PIX_FMT_YUV420P);
+                recorder.setVideoCodec(FFmpegUtil.videoCodecId(videoCodec));
+                if (bitrate != null && !bitrate.isEmpty()) {
+                    recorder.setVideoBitrate(FFmpegUtil.parseBitrate(bitrate));
+                }
+                recorder.setGopSize((int) Math.round(frameRate * GOP_SECONDS));
+                recorder.setVideoOption("threads", String.valueOf(encoderThreads));
+                recorder.start();
+
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    if (frame.timestamp >= endUs) {
+                        break;
+                    }
+                    recorder.record(frame, AV_PIX_FMT_YUV420P);
+                }
+                recorder.stop();
+            }
+        }
+    }
+
+    private static void encodeAudio(String inputPath, String outputPath, String audioCodec) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+            grabber.start();
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath, grabber.getAudioChannels())) {
+                recorder.setFormat("mpegts");
+                recorder.setSampleRate(grabber.getSampleRate());
+                recorder.setAudioCodec(FFmpegUtil.audioCodecId(audioCodec));
+                if (grabber.getAudioBitrate() > 0) {
+                    recorder.setAudioBitrate(grabber.getAudioBitrate());
+                }
+                recorder.start();
+
+                Frame frame;
+                while ((frame = grabber.grabSamples()) != null) {
+                    recorder.record(frame);
+                }
+                recorder.stop();
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (Exception e) {
+                    log.warn("删除临时文件失败: {}", path);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("删除临时目录失败: {}", dir);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.ffmpeg.util;
+
+import com.example.ffmpeg.dto.TranscodeRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+
+/**
+ * 单次解码输出多个码率版本（ABR阶梯）
+ *
+ * 解码线程把每帧复制一份，放入各版本的有界队列；每个版本由独立的编码线程写出，
+ * 录制器内部用swscale缩放到该版本的分辨率。各版本关键帧间隔一致（2秒、关闭场景切换插入），
+ * 便于播放器在版本之间切换。
+ */
+@Slf4j
+public class RenditionTranscoder {
+
+    /** 每个版本的待编码帧队列长度，限制解码领先编码的内存占用 */
+    private static final int QUEUE_CAPACITY = 8;
+    /** 每编码多少帧报告一次进度 */
+    private static final int PROGRESS_INTERVAL = 30;
+    /** 关键帧间隔（秒） */
+    private static final double GOP_SECONDS = 2.0;
+    private static final long POLL_MS = 100;
+
+    /**
+     * 各版本的转码进度回调，在编码线程中调用
+     */
+    public interface ProgressListener {
+        void onStart(String outputPath, long totalFrames);
+
+        void onProgress(String outputPath, long framesEncoded, long totalFrames);
+
+        void onComplete(String outputPath);
+
+        void onFailed(String outputPath, String error);
+    }
+
+    /**
+     * 所有版本共享的解码帧副本，最后一个版本写出后释放
+     */
+    private static class SharedFrame {
+        final Frame frame;
+        final AtomicInteger refs;
+
+        SharedFrame(Frame frame, int refs) {
+            this.frame = frame;
+            this.refs = new AtomicInteger(refs);
+        }
+
+        void release() {
+            if (frame != null && refs.decrementAndGet() == 0) {
+                frame.close();
+            }
+        }
+    }
+
+    private static final SharedFrame END = new SharedFrame(null, 0);
+
+    private static class Output {
+        final String name;
+        final String path;
+        final FFmpegFrameRecorder recorder;
+        final BlockingQueue<SharedFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        Output(String name, String path, FFmpegFrameRecorder recorder) {
+            this.name = name;
+            this.path = path;
+            this.recorder = recorder;
+        }
+    }
+
+    /**
+     * 转码为多个版本
+     *
+     * @param baseOutputPath 版本未指定输出路径时，在该路径文件名后追加"_版本名"
+     * @return 各版本输出路径
+     */
+    public static List<String> transcode(String inputPath, String baseOutputPath,
+                                         List<TranscodeRequest.Rendition> renditions,
+                                         String videoCodec, String audioCodec,
+                                         ProgressListener listener) throws Exception {
+        if (renditions == null || renditions.isEmpty()) {
+            throw new IllegalArgumentException("转码版本列表为空");
+        }
+
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputPath)) {
+            // 解码直接输出YUV420P，各版本只需缩放，不再做颜色空间转换
+            grabber.setPixelFormat(AV_PIX_FMT_YUV420P);
+            grabber.start();
+            long totalFrames = Math.max(0, grabber.getLengthInFrames());
+
+            List<Output> outputs = new ArrayList<>();
+            ExecutorService encoders = null;
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            try {
+                for (TranscodeRequest.Rendition rendition : renditions) {
+                    outputs.add(openOutput(grabber, rendition, baseOutputPath, videoCodec, audioCodec));
+                }
+
+                AtomicInteger threadIndex = new AtomicInteger();
+                encoders = Executors.newFixedThreadPool(outputs.size(), runnable -> {
+                    Thread thread = new Thread(runnable, "RenditionEncode-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                List<Future<?>> futures = new ArrayList<>();
+                for (Output output : outputs) {
+                    listener.onStart(output.path, totalFrames);
+                    futures.add(encoders.submit(() -> encodeLoop(output, totalFrames, failure, listener)));
+                }
+
+                Frame frame;
+                while (failure.get() == null && (frame = grabber.grab()) != null) {
+                    if (frame.image == null && frame.samples == null) {
+                        continue;
+                    }
+                    // grabber会复用帧缓冲区，复制一份供各编码线程只读共享
+                    SharedFrame shared = new SharedFrame(frame.clone(), outputs.size());
+                    for (Output output : outputs) {
+                        if (!offer(output.queue, shared, failure)) {
+                            shared.release();
+                        }
+                    }
+                }
+                for (Output output : outputs) {
+                    offer(output.queue, END, failure);
+                }
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                if (encoders != null) {
+                    encoders.shutdownNow();
+                }
+                for (Output output : outputs) {
+                    drain(output.queue);
+                    try {
+                        output.recorder.release();
+                    } catch (Exception e) {
+                        log.warn("释放录制器失败: {} - {}", output.path, e.getMessage());
+                    }
+                }
+            }
+
+            if (failure.get() != null) {
+                throw new RuntimeException("多版本转码失败: " + failure.get().getMessage(), failure.get());
+            }
+
+            List<String> paths = new ArrayList<>();
+            for (Output output : outputs) {
+                paths.add(output.path);
+            }
+            log.info("多版本转码完成: {} -> {}", inputPath, paths);
+            return paths;
+        }
+    }
+
+    private static void encodeLoop(Output output, long totalFrames, AtomicReference<Throwable> failure,
+                                   ProgressListener listener) {
+        long framesEncoded = 0;
+        try {
+            while (true) {
+                SharedFrame shared = output.queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (shared == null) {
+                    if (failure.get() != null) {
+                        listener.onFailed(output.path, "其他版本转码失败，已中止");
+                        return;
+                    }
+                    continue;
+                }
+                if (shared == END) {
+                    break;
+                }
+                try {
+                    if (shared.frame.image != null) {
+                        output.recorder.record(shared.frame, AV_PIX_FMT_YUV420P);
+                        framesEncoded++;
+                        if (framesEncoded % PROGRESS_INTERVAL == 0) {
+                            listener.onProgress(output.path, framesEncoded, totalFrames);
+                        }
+                    } else {
+                        output.recorder.record(shared.frame);
+                    }
+                } finally {
+                    shared.release();
+                }
+            }
+            output.recorder.stop();
+            listener.onProgress(output.path, framesEncoded, totalFrames);
+            listener.onComplete(output.path);
+            log.debug("版本 {} 编码完成: {} 帧 -> {}", output.name, framesEncoded, output.path);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            listener.onFailed(output.path, e.getMessage());
+            log.error("版本 {} 编码失败: {}", output.name, e.getMessage(), e);
+        }
+    }
+
+    private static Output openOutput(FFmpegFrameGrabber grabber, TranscodeRequest.Rendition rendition,
+                                     String baseOutputPath, String videoCodec, String audioCodec) throws Exception {
+        int[] size = parseResolution(rendition.getResolution(), grabber.getImageWidth(), grabber.getImageHeight());
+        String name = rendition.getName() != null && !rendition.getName().isEmpty()
+                ? rendition.getName() : size[1] + "p";
+        String path = rendition.getOutputPath() != null && !rendition.getOutputPath().isEmpty()
+                ? rendition.getOutputPath() : renditionPath(baseOutputPath, name);
+
+        File outputFile = new File(path).getAbsoluteFile();
+        outputFile.getParentFile().mkdirs();
+
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(path, size[0], size[1], grabber.getAudioChannels());
+        recorder.setSampleRate(grabber.getSampleRate());
+        recorder.setFrameRate(grabber.getFrameRate());
+        recorder.setPixelFormat(AV_PIX_FMT_YUV420P);
+        FFmpegUtil.configureTranscodeCodecs(recorder, videoCodec, audioCodec, rendition.getBitrate());
+        // 各版本关键帧对齐
+        double frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30;
+        recorder.setGopSize((int) Math.round(frameRate * GOP_SECONDS));
+        recorder.setVideoOption("sc_threshold", "0");
+        recorder.setFormat("mp4");
+        recorder.start();
+        return new Output(name, path, recorder);
+    }
+
+    /**
+     * 解析版本分辨率："1280x720"，或只给高度"720"/"720p"时按源宽高比计算宽度（取偶数）
+     */
+    static int[] parseResolution(String resolution, int sourceWidth, int sourceHeight) {
+        if (resolution == null || resolution.isEmpty()) {
+            return new int[]{sourceWidth, sourceHeight};
+        }
+        String value = resolution.trim().toLowerCase();
+        if (value.contains("x")) {
+            String[] dims = value.split("x");
+            return new int[]{Integer.parseInt(dims[0].trim()), Integer.parseInt(dims[1].trim())};
+        }
+        if (value.endsWith("p")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        int height = Integer.parseInt(value);
+        int width = (int) Math.round((double) sourceWidth * height / sourceHeight / 2) * 2;
+        return new int[]{width, height};
+    }
+
+    private static String renditionPath(String baseOutputPath, String name) {
+        int dot = baseOutputPath.lastIndexOf('.');
+        int slash = Math.max(baseOutputPath.lastIndexOf('/'), baseOutputPath.lastIndexOf('\\'));
+        if (dot > slash) {
+            return baseOutputPath.substring(0, dot) + "_" + name + baseOutputPath.substring(dot);
+        }
+        return baseOutputPath + "_" + name + ".mp4";
+    }
+
+    private static boolean offer(BlockingQueue<SharedFrame> queue, SharedFrame item,
+                                 AtomicReference<Throwable> failure) throws InterruptedException {
+        while (!queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void drain(BlockingQueue<SharedFrame> queue) {
+        SharedFrame shared;
+        while ((shared = queue.poll()) != null) {
+            shared.release();
+        }
+    }
+}
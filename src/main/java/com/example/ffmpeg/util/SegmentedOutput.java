@@ -0,0 +1,97 @@
+package com.example.ffmpeg.util;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * 分片输出（HLS / DASH）
+ *
+ * 录制过程中每写完一个分片即更新播放列表，播放器可以在任务结束前开始播放。
+ * 分片和播放列表放在以输出文件名命名的目录中，关键帧间隔与分片时长一致。
+ */
+public class SegmentedOutput {
+
+    public static final String MP4 = "mp4";
+    public static final String HLS = "hls";
+    public static final String DASH = "dash";
+
+    public static final int DEFAULT_SEGMENT_SECONDS = 4;
+
+    private static final String HLS_PLAYLIST = "playlist.m3u8";
+    private static final String DASH_MANIFEST = "manifest.mpd";
+
+    /**
+     * 规范化输出格式，为空时为mp4
+     */
+    public static String normalizeFormat(String format) {
+        if (format == null || format.isEmpty()) {
+            return MP4;
+        }
+        String value = format.toLowerCase(Locale.ROOT);
+        return switch (value) {
+            case "mp4" -> MP4;
+            case "hls", "m3u8" -> HLS;
+            case "dash", "mpd" -> DASH;
+            default -> throw new IllegalArgumentException("不支持的输出格式: " + format);
+        };
+    }
+
+    public static boolean isSegmented(String format) {
+        return HLS.equals(format) || DASH.equals(format);
+    }
+
+    /**
+     * 分片格式的播放列表路径
+     *
+     * 已是.m3u8/.mpd时原样使用，否则以去掉扩展名的输出路径为目录，例如
+     * video/output/a.mp4 -> video/output/a/playlist.m3u8
+     */
+    public static String playlistPath(String outputPath, String format) {
+        String lower = outputPath.toLowerCase(Locale.ROOT);
+        if ((HLS.equals(format) && lower.endsWith(".m3u8")) || (DASH.equals(format) && lower.endsWith(".mpd"))) {
+            return outputPath;
+        }
+        Path path = Paths.get(outputPath);
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        Path dir = path.getParent() != null ? path.getParent().resolve(baseName) : Paths.get(baseName);
+        return dir.resolve(HLS.equals(format) ? HLS_PLAYLIST : DASH_MANIFEST).toString().replace('\\', '/');
+    }
+
+    /**
+     * 配置录制器的分片输出
+     *
+     * @param playlistPath 录制器输出路径（playlistPath的返回值）
+     */
+    public static void configure(FFmpegFrameRecorder recorder, String format, String playlistPath,
+                                 double frameRate, int segmentSeconds) {
+        int seconds = segmentSeconds > 0 ? segmentSeconds : DEFAULT_SEGMENT_SECONDS;
+        // 分片只能在关键帧处切分，关键帧间隔等于分片时长时各分片长度一致
+        double fps = frameRate > 0 ? frameRate : 30;
+        recorder.setGopSize((int) Math.round(fps * seconds));
+
+        if (HLS.equals(format)) {
+            Path dir = Paths.get(playlistPath).toAbsolutePath().getParent();
+            recorder.setFormat("hls");
+            recorder.setOption("hls_time", String.valueOf(seconds));
+            recorder.setOption("hls_list_size", "0");
+            // event列表：只追加分片，结束时写入ENDLIST
+            recorder.setOption("hls_playlist_type", "event");
+            // 分片先写临时文件，写完再改名，静态资源不会返回不完整的分片
+            recorder.setOption("hls_flags", "independent_segments+temp_file");
+            recorder.setOption("hls_segment_filename",
+                    dir.resolve("segment_%05d.ts").toString().replace('\\', '/'));
+        } else if (DASH.equals(format)) {
+            recorder.setFormat("dash");
+            recorder.setOption("seg_duration", String.valueOf(seconds));
+            recorder.setOption("use_template", "1");
+            recorder.setOption("use_timeline", "1");
+            // 保留全部分片，每个分片写完后更新清单
+            recorder.setOption("window_size", "0");
+        }
+    }
+}
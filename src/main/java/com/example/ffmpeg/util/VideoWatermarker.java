@@ -0,0 +1,217 @@
+package com.example.ffmpeg.util;
+
+import com.example.ffmpeg.dto.WatermarkRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameFilter;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+import static org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV420P;
+
+/**
+ * 视频水印
+ *
+ * 使用FFmpeg滤镜图（movie读取水印图片，scale缩放，colorchannelmixer调整透明度，overlay叠加）
+ * 在YUV420P上由原生代码完成混合，不经过BufferedImage。
+ * 原Java2D逐帧混合的实现保留为drawWithJava2D，用于基准对比。
+ */
+@Slf4j
+public class VideoWatermarker {
+
+    /**
+     * 通过滤镜图叠加水印
+     */
+    public static void overlay(WatermarkRequest request) throws Exception {
+        Path outputPath = Paths.get(request.getOutputPath()).toAbsolutePath();
+        Files.createDirectories(outputPath.getParent());
+
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(request.getInputPath())) {
+            // 解码输出直接为YUV420P，滤镜和编码器都无需再做颜色空间转换
+            grabber.setPixelFormat(AV_PIX_FMT_YUV420P);
+            grabber.start();
+
+            String filters = buildFilter(request, grabber.getImageWidth());
+            log.debug("水印滤镜: {}", filters);
+
+            try (FFmpegFrameFilter filter = new FFmpegFrameFilter(filters,
+                    grabber.getImageWidth(), grabber.getImageHeight());
+                 FFmpegFrameRecorder recorder = createRecorder(request, grabber)) {
+                filter.setPixelFormat(AV_PIX_FMT_YUV420P);
+                filter.setFrameRate(grabber.getFrameRate());
+                filter.setAspectRatio(grabber.getAspectRatio());
+                filter.start();
+                recorder.start();
+
+                Frame frame;
+                while ((frame = grabber.grab()) != null) {
+                    if (frame.image != null) {
+                        filter.push(frame);
+                        Frame filtered;
+                        while ((filtered = filter.pull()) != null) {
+                            recorder.record(filtered, AV_PIX_FMT_YUV420P);
+                        }
+                    } else if (frame.samples != null) {
+                        recorder.record(frame);
+                    }
+                }
+
+                filter.push(null);
+                Frame filtered;
+                while ((filtered = filter.pull()) != null) {
+                    if (filtered.image != null) {
+                        recorder.record(filtered, AV_PIX_FMT_YUV420P);
+                    }
+                }
+                recorder.stop();
+                filter.stop();
+            }
+        }
+    }
+
+    /**
+     * 原实现：逐帧转换为BufferedImage后用Java2D混合水印
+     */
+    public static void drawWithJava2D(WatermarkRequest request) throws Exception {
+        BufferedImage watermark = ImageIO.read(new File(request.getWatermarkPath()));
+
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(request.getInputPath())) {
+            grabber.start();
+
+            int videoWidth = grabber.getImageWidth();
+            int videoHeight = grabber.getImageHeight();
+            int watermarkWidth = (int) (videoWidth * request.getScale());
+            int watermarkHeight = (int) (watermark.getHeight() * ((float) watermarkWidth / watermark.getWidth()));
+
+            BufferedImage scaledWatermark = new BufferedImage(watermarkWidth, watermarkHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = scaledWatermark.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(watermark, 0, 0, watermarkWidth, watermarkHeight, null);
+            g2d.dispose();
+
+            int margin = request.getMargin();
+            int x;
+            int y;
+            switch (request.getPosition().toLowerCase(Locale.ROOT)) {
+                case "topleft" -> {
+                    x = margin;
+                    y = margin;
+                }
+                case "topright" -> {
+                    x = videoWidth - watermarkWidth - margin;
+                    y = margin;
+                }
+                case "bottomleft" -> {
+                    x = margin;
+                    y = videoHeight - watermarkHeight - margin;
+                }
+                case "center" -> {
+                    x = (videoWidth - watermarkWidth) / 2;
+                    y = (videoHeight - watermarkHeight) / 2;
+                }
+                default -> {
+                    x = videoWidth - watermarkWidth - margin;
+                    y = videoHeight - watermarkHeight - margin;
+                }
+            }
+
+            Path outputPath = Paths.get(request.getOutputPath()).toAbsolutePath();
+            Files.createDirectories(outputPath.getParent());
+
+            try (FFmpegFrameRecorder recorder = createRecorder(request, grabber)) {
+                recorder.start();
+                Frame frame;
+                while ((frame = grabber.grab()) != null) {
+                    if (frame.image != null) {
+                        Java2DFrameConverter converter = new Java2DFrameConverter();
+                        BufferedImage image = converter.convert(frame);
+
+                        Graphics2D g2 = image.createGraphics();
+                        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, request.getOpacity()));
+                        g2.drawImage(scaledWatermark, x, y, null);
+                        g2.dispose();
+
+                        frame = converter.convert(image);
+                    }
+                    recorder.record(frame);
+                }
+                recorder.stop();
+            }
+        }
+    }
+
+    /**
+     * 构造水印滤镜图：[in] + movie水印 -> overlay -> [out]
+     */
+    static String buildFilter(WatermarkRequest request, int videoWidth) {
+        // 宽度按视频宽度比例，高度按水印原始宽高比（取偶数）
+        int watermarkWidth = Math.max(2, (int) (videoWidth * request.getScale()) & ~1);
+        StringBuilder source = new StringBuilder()
+                .append("movie=filename=").append(escapeFilterPath(request.getWatermarkPath()))
+                .append(",format=rgba")
+                .append(",scale=").append(watermarkWidth).append(":-2");
+        if (request.getOpacity() < 1.0f) {
+            source.append(",colorchannelmixer=aa=").append(String.format(Locale.ROOT, "%.3f", request.getOpacity()));
+        }
+        return source.append("[wm];[in][wm]overlay=").append(overlayPosition(request))
+                .append(":format=yuv420[out]")
+                .toString();
+    }
+
+    private static String overlayPosition(WatermarkRequest request) {
+        int margin = request.getMargin();
+        String position = request.getPosition() != null ? request.getPosition().toLowerCase(Locale.ROOT) : "";
+        return switch (position) {
+            case "topleft" -> "x=" + margin + ":y=" + margin;
+            case "topright" -> "x=W-w-" + margin + ":y=" + margin;
+            case "bottomleft" -> "x=" + margin + ":y=H-h-" + margin;
+            case "center" -> "x=(W-w)/2:y=(H-h)/2";
+            default -> "x=W-w-" + margin + ":y=H-h-" + margin;
+        };
+    }
+
+    /**
+     * 滤镜参数中的文件路径转义：先按选项值转义，再按滤镜图转义
+     */
+    static String escapeFilterPath(String path) {
+        String value = path.replace('\\', '/')
+                .replace("'", "\\'")
+                .replace(":", "\\:");
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '\\' || c == '\'' || c == '[' || c == ']' || c == ',' || c == ';') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static FFmpegFrameRecorder createRecorder(WatermarkRequest request, FFmpegFrameGrabber grabber) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(request.getOutputPath(),
+                grabber.getImageWidth(), grabber.getImageHeight(), grabber.getAudioChannels());
+
+        recorder.setFormat(grabber.getFormat());
+        recorder.setFrameRate(grabber.getFrameRate());
+        recorder.setVideoCodec(request.isPreserveQuality() ? grabber.getVideoCodec() : avcodec.AV_CODEC_ID_H264);
+        recorder.setVideoBitrate(request.isPreserveQuality() ? grabber.getVideoBitrate() : 2000000);
+
+        recorder.setAudioCodec(grabber.getAudioCodec());
+        recorder.setSampleRate(grabber.getSampleRate());
+        recorder.setAudioBitrate(grabber.getAudioBitrate());
+        return recorder;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.ffmpeg.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveResolutionPolicyTest {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+
+    private static double[] box(double size) {
+        return new double[]{100, 100, 100 + size, 100 + size};
+    }
+
+    private static void observe(AdaptiveResolutionPolicy policy, double size, int count) {
+        for (int i = 0; i < count; i++) {
+            policy.observe(box(size));
+        }
+    }
+
+    @Test
+    void usesDefaultSizeWithoutHistory() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+
+        AdaptiveResolutionPolicy.Plan plan = policy.plan(WIDTH, HEIGHT);
+        assertEquals(1024, plan.maxImageSize);
+        assertFalse(plan.isTiled());
+    }
+
+    @Test
+    void defaultSizeNeverExceedsSource() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+
+        assertEquals(640, policy.plan(640, 360).maxImageSize);
+    }
+
+    @Test
+    void largeTargetsShrinkInputToMinimum() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 400, 10);
+
+        AdaptiveResolutionPolicy.Plan plan = policy.plan(WIDTH, HEIGHT);
+        assertEquals(512, plan.maxImageSize);
+        assertFalse(plan.isTiled());
+    }
+
+    @Test
+    void mediumTargetsKeepSmallBoxAtTargetPixels() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 100, 10);
+
+        // 100px目标缩到32px所需长边：ceil(3840 * 32 / 100)
+        AdaptiveResolutionPolicy.Plan plan = policy.plan(WIDTH, HEIGHT);
+        assertEquals(1229, plan.maxImageSize);
+        assertFalse(plan.isTiled());
+    }
+
+    @Test
+    void tinyTargetsSwitchToTiles() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 40, 10);
+
+        AdaptiveResolutionPolicy.Plan plan = policy.plan(WIDTH, HEIGHT);
+        assertTrue(plan.isTiled());
+        assertEquals(3, plan.tilesPerSide);
+        assertEquals(1344, plan.maxImageSize);
+    }
+
+    @Test
+    void probesDefaultSizePeriodically() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 400, 10);
+
+        for (int i = 1; i < 10; i++) {
+            assertEquals(512, policy.plan(WIDTH, HEIGHT).maxImageSize, "plan " + i);
+        }
+        assertEquals(1024, policy.plan(WIDTH, HEIGHT).maxImageSize);
+        assertEquals(512, policy.plan(WIDTH, HEIGHT).maxImageSize);
+    }
+
+    @Test
+    void fewDetectionsDecayHistoryBackToDefault() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 400, 50);
+        assertEquals(512, policy.plan(WIDTH, HEIGHT).maxImageSize);
+
+        for (int i = 0; i < 5; i++) {
+            policy.observeDetections(Collections.emptyList());
+        }
+        assertEquals(1024, policy.plan(WIDTH, HEIGHT).maxImageSize);
+    }
+
+    @Test
+    void smallTargetsRecoverAfterShrinking() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        observe(policy, 400, 20);
+
+        // 每次只检出一个小目标：历史中的大目标逐步被丢弃，小目标占比上升后切回瓦片
+        policy.observeDetections(List.of(box(40)));
+        assertFalse(policy.plan(WIDTH, HEIGHT).isTiled());
+        policy.observeDetections(List.of(box(40)));
+        assertTrue(policy.plan(WIDTH, HEIGHT).isTiled());
+    }
+
+    @Test
+    void ignoresInvalidBoxes() {
+        AdaptiveResolutionPolicy policy = new AdaptiveResolutionPolicy(1024, 0, 4);
+        policy.observe(null);
+        policy.observe(new double[]{0, 0, 10});
+        policy.observe(new double[]{50, 50, 50, 80});
+        policy.observe(new double[]{50, 80, 90, 50});
+
+        assertEquals(1024, policy.plan(WIDTH, HEIGHT).maxImageSize);
+    }
+
+    @Test
+    void byteBudgetShrinksInputButNotBelowMinimum() {
+        // 1024长边按16:9约0.3字节/像素估算约177KB
+        AdaptiveResolutionPolicy fits = new AdaptiveResolutionPolicy(1024, 200_000, 4);
+        assertEquals(1024, fits.plan(WIDTH, HEIGHT).maxImageSize);
+
+        AdaptiveResolutionPolicy tight = new AdaptiveResolutionPolicy(1024, 100_000, 4);
+        int size = tight.plan(WIDTH, HEIGHT).maxImageSize;
+        assertTrue(size < 1024 && size >= 512, "size " + size);
+
+        AdaptiveResolutionPolicy tiny = new AdaptiveResolutionPolicy(1024, 1_000, 4);
+        assertEquals(512, tiny.plan(WIDTH, HEIGHT).maxImageSize);
+        assertEquals(400, tiny.plan(400, 300).maxImageSize);
+    }
+
+    @Test
+    void byteBudgetCountsTilesPerRequest() {
+        AdaptiveResolutionPolicy single = new AdaptiveResolutionPolicy(1024, 600_000, 1);
+        AdaptiveResolutionPolicy batched = new AdaptiveResolutionPolicy(1024, 600_000, 4);
+        observe(single, 40, 10);
+        observe(batched, 40, 10);
+
+        assertEquals(1344, single.plan(WIDTH, HEIGHT).maxImageSize);
+        assertTrue(batched.plan(WIDTH, HEIGHT).maxImageSize < 1344);
+    }
+
+    @Test
+    void tileRegionsOverlapAndStayInsideFrame() {
+        int[][] regions = AdaptiveResolutionPolicy.tileRegions(WIDTH, HEIGHT, 3);
+
+        assertEquals(9, regions.length);
+        // 瓦片1280x720，两侧各重叠5%
+        assertArrayEquals(new int[]{0, 0, 1344, 756}, regions[0]);
+        assertArrayEquals(new int[]{1216, 684, 1408, 792}, regions[4]);
+        assertArrayEquals(new int[]{2496, 1404, 1344, 756}, regions[8]);
+        for (int[] region : regions) {
+            assertTrue(region[0] >= 0 && region[1] >= 0);
+            assertTrue(region[0] + region[2] <= WIDTH && region[1] + region[3] <= HEIGHT);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.ffmpeg.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HedgedRequestExecutorTest {
+
+    private static final long HEDGE_DELAY_MS = 100;
+
+    /**
+     * 预热一个样本，之后的请求对冲等待时间即为minDelayMs
+     */
+    private static HedgedRequestExecutor executor(long minDelayMs, double budgetPercent) {
+        HedgedRequestExecutor executor = new HedgedRequestExecutor(true, 0.95, 10, 1, minDelayMs, budgetPercent);
+        executor.execute(() -> Mono.just("warm-up")).block();
+        return executor;
+    }
+
+    @Test
+    void fastPrimaryErrorPropagatesWithoutWaitingForHedge() {
+        HedgedRequestExecutor executor = executor(60_000, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(executor.execute(() -> {
+                    calls.incrementAndGet();
+                    return Mono.<String>error(new IllegalStateException("429"));
+                }))
+                .expectErrorMessage("429")
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, calls.get());
+        assertEquals(0L, executor.snapshot().get("hedgedCalls"));
+    }
+
+    @Test
+    void hedgeWinsWhenPrimaryIsSlow() {
+        HedgedRequestExecutor executor = executor(HEDGE_DELAY_MS, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.withVirtualTime(() -> executor.execute(() ->
+                        calls.incrementAndGet() == 1 ? Mono.<String>never() : Mono.just("hedge")))
+                .thenAwait(Duration.ofMillis(HEDGE_DELAY_MS))
+                .expectNext("hedge")
+                .verifyComplete();
+
+        assertEquals(2, calls.get());
+        assertEquals(1L, executor.snapshot().get("hedgedCalls"));
+        assertEquals(1L, executor.snapshot().get("hedgeWins"));
+    }
+
+    @Test
+    void primaryErrorAfterHedgeStartedFallsBackToHedge() {
+        HedgedRequestExecutor executor = executor(HEDGE_DELAY_MS, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.withVirtualTime(() -> executor.execute(() -> calls.incrementAndGet() == 1
+                        ? Mono.delay(Duration.ofMillis(150)).then(Mono.<String>error(new IllegalStateException("primary")))
+                        : Mono.delay(Duration.ofMillis(100)).thenReturn("hedge")))
+                .thenAwait(Duration.ofMillis(300))
+                .expectNext("hedge")
+                .verifyComplete();
+    }
+
+    @Test
+    void bothFailingReturnsPrimaryError() {
+        HedgedRequestExecutor executor = executor(HEDGE_DELAY_MS, 100);
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.withVirtualTime(() -> executor.execute(() -> calls.incrementAndGet() == 1
+                        ? Mono.delay(Duration.ofMillis(300)).then(Mono.<String>error(new IllegalStateException("primary")))
+                        : Mono.<String>error(new IllegalStateException("hedge"))))
+                .thenAwait(Duration.ofMillis(300))
+                .expectErrorMessage("primary")
+                .verify();
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void exhaustedBudgetWaitsForPrimaryWithoutHedging() {
+        HedgedRequestExecutor executor = executor(HEDGE_DELAY_MS, 0);
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.withVirtualTime(() -> executor.execute(() -> {
+                    calls.incrementAndGet();
+                    return Mono.delay(Duration.ofMillis(300)).thenReturn("primary");
+                }))
+                .thenAwait(Duration.ofMillis(300))
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(0L, executor.snapshot().get("hedgedCalls"));
+    }
+}
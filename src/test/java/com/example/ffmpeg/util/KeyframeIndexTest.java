@@ -0,0 +1,128 @@
+package com.example.ffmpeg.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyframeIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static KeyframeIndex index(long[] ptsUs, long[] frameNumbers, long[] positions) {
+        return new KeyframeIndex("/data/视频/flight_01.mp4", 5_368_709_120L, 1_700_000_000_123L, 1, 90000,
+                54_000, 1_800_000_000L, 29.97, ptsUs, frameNumbers, positions);
+    }
+
+    private static KeyframeIndex sample() {
+        return index(new long[]{0, 2_000_000, 4_000_000, 6_000_000},
+                new long[]{0, 60, 120, 180},
+                new long[]{48, 1_048_624, 2_097_200, 3_145_776});
+    }
+
+    @Test
+    void sidecarRoundTripPreservesHeaderAndEntries() throws IOException {
+        // 偏移未知(-1)、偏移回退和超过int范围的值分别覆盖ZigZag负差值和多字节变长编码
+        long[] ptsUs = {0, 33_367, 2_002_000, 3_600_000_000L};
+        long[] frameNumbers = {0, 1, 60, 107_892};
+        long[] positions = {-1, 5_000_000_000L, 4_999_999_000L, -1};
+        KeyframeIndex original = index(ptsUs, frameNumbers, positions);
+
+        Path file = tempDir.resolve("index.kfi");
+        original.writeTo(file);
+        KeyframeIndex restored = KeyframeIndex.readFrom(file);
+
+        assertEquals(original.getPath(), restored.getPath());
+        assertTrue(restored.matches(5_368_709_120L, 1_700_000_000_123L));
+        assertFalse(restored.matches(5_368_709_120L, 1_700_000_000_124L));
+        assertEquals(1, restored.getTimeBaseNum());
+        assertEquals(90000, restored.getTimeBaseDen());
+        assertEquals(54_000, restored.getFrameCount());
+        assertEquals(1_800_000_000L, restored.getLengthUs());
+        assertEquals(29.97, restored.getFrameRate());
+        assertEquals(ptsUs.length, restored.size());
+        for (int i = 0; i < ptsUs.length; i++) {
+            PacketRemuxer.Keyframe keyframe = restored.get(i);
+            assertEquals(ptsUs[i], keyframe.ptsUs);
+            assertEquals(frameNumbers[i], keyframe.frameNumber);
+            assertEquals(positions[i], keyframe.position);
+        }
+    }
+
+    @Test
+    void emptyIndexRoundTrips() throws IOException {
+        Path file = tempDir.resolve("empty.kfi");
+        index(new long[0], new long[0], new long[0]).writeTo(file);
+
+        KeyframeIndex restored = KeyframeIndex.readFrom(file);
+        assertEquals(0, restored.size());
+        assertNull(restored.atOrBefore(1_000_000));
+        assertTrue(restored.between(0, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void readRejectsForeignFile() throws IOException {
+        Path file = tempDir.resolve("other.kfi");
+        Files.write(file, new byte[]{'K', 'F', 'I', '0', 0, 0});
+
+        assertThrows(IOException.class, () -> KeyframeIndex.readFrom(file));
+    }
+
+    @Test
+    void readRejectsTruncatedFile() throws IOException {
+        Path file = tempDir.resolve("truncated.kfi");
+        sample().writeTo(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThrows(IOException.class, () -> KeyframeIndex.readFrom(file));
+    }
+
+    @Test
+    void atOrBeforeReturnsLastKeyframeNotAfterTarget() {
+        KeyframeIndex index = sample();
+
+        assertEquals(0, index.atOrBefore(-1).ptsUs);
+        assertEquals(0, index.atOrBefore(0).ptsUs);
+        assertEquals(0, index.atOrBefore(1_999_999).ptsUs);
+        assertEquals(2_000_000, index.atOrBefore(2_000_000).ptsUs);
+        assertEquals(2_000_000, index.atOrBefore(2_000_001).ptsUs);
+        assertEquals(6_000_000, index.atOrBefore(6_000_000).ptsUs);
+        assertEquals(6_000_000, index.atOrBefore(Long.MAX_VALUE).ptsUs);
+        assertEquals(2_097_200, index.atOrBefore(5_000_000).position);
+        assertEquals(120, index.atOrBefore(5_000_000).frameNumber);
+    }
+
+    @Test
+    void betweenIncludesBothBoundaries() {
+        KeyframeIndex index = sample();
+
+        assertEquals(List.of(2_000_000L, 4_000_000L), index.between(2_000_000, 4_000_000));
+        assertEquals(List.of(4_000_000L), index.between(2_000_001, 5_999_999));
+        assertEquals(List.of(0L, 2_000_000L, 4_000_000L, 6_000_000L), index.between(0, Long.MAX_VALUE));
+        assertEquals(List.of(0L), index.between(-5, 0));
+        assertTrue(index.between(2_000_001, 3_999_999).isEmpty());
+        assertTrue(index.between(6_000_001, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void getKeyframesKeepsOrder() {
+        List<PacketRemuxer.Keyframe> keyframes = sample().getKeyframes();
+
+        assertEquals(4, keyframes.size());
+        assertArrayEquals(new long[]{0, 60, 120, 180},
+                keyframes.stream().mapToLong(keyframe -> keyframe.frameNumber).toArray());
+    }
+}